@@ -22,12 +22,25 @@
  * SOFTWARE.
  */
 
+import diff.CostPartition;
+import diff.LocalityPartition;
 import diff.SimplePartition;
+import index.IgnoredRevisions;
+import java.io.*;
 import java.util.*;
 import org.apache.commons.cli.*;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import parser.GitParser;
 import parser.GitParserThread;
+import parser.IssueLinker;
+import util.AdmissionController;
+import util.BlobCache;
+import util.CommitDiffCache;
 import util.Configuration;
 
 /**
@@ -38,12 +51,16 @@ public class Main {
   private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
   public static void main(String... args) {
+    long start = System.currentTimeMillis();
     Configuration conf = Configuration.init(logger, args);
 
-    List<String> issue_paths =
-        SimplePartition.splitFile(conf.getNumberOfCPUS(), conf.getIssuePath(), "./issues");
+    if (conf.getJiraIssuePath() != null && !buildIssueList(conf)) return;
+
+    List<String> issue_paths = splitIssues(conf);
     if (issue_paths.isEmpty()) return;
 
+    findIgnoredRevisions(conf);
+
     List<GitParserThread> parsers = new LinkedList<>();
     List<String> resPaths = new LinkedList<>();
     for (int i = 0; i < conf.getNumberOfCPUS(); i++) {
@@ -63,5 +80,111 @@ public class Main {
     }
 
     SimplePartition.mergeFiles(resPaths, conf.getResultPath());
+
+    if (conf.getSchedule().equals("cost")) {
+      List<GitParser> gitParsers = new LinkedList<>();
+      for (GitParserThread parser : parsers) gitParsers.add(parser.parser);
+      CostPartition.saveReport(gitParsers, conf.getResultPath());
+    }
+
+    CommitDiffCache diffCache = CommitDiffCache.getInstance();
+    logger.info(
+        String.format(
+            "Diff cache: %d hits, %d misses.", diffCache.getHits(), diffCache.getMisses()));
+
+    BlobCache blobCache = BlobCache.getInstance();
+    logger.info(
+        String.format(
+            "Blob cache: %d hits, %d misses.", blobCache.getHits(), blobCache.getMisses()));
+
+    AdmissionController admission = AdmissionController.getInstance();
+    if (conf.getHeapLimit() > 0) {
+      logger.info(
+          String.format(
+              "Throttled the threads %d times, down to %d threads at the least.",
+              admission.getThrottles(), admission.getLowestPermits()));
+    }
+
+    logger.info(
+        String.format("Finished in %.1f seconds.", (System.currentTimeMillis() - start) / 1000.0));
+  }
+
+  /**
+   * Split the issues over the threads according to the configured schedule.
+   *
+   * @param conf the configuration that points out the issues and the repository.
+   * @return the paths to the issue files of each thread.
+   */
+  private static List<String> splitIssues(Configuration conf) {
+    if (!conf.getSchedule().equals("locality") && !conf.getSchedule().equals("cost"))
+      return SimplePartition.splitFile(conf.getNumberOfCPUS(), conf.getIssuePath(), "./issues");
+
+    FileRepositoryBuilder builder = new FileRepositoryBuilder();
+    builder.setMustExist(true);
+    builder.addCeilingDirectory(new File(conf.getRepository()));
+    builder.findGitDir(new File(conf.getRepository()));
+
+    try (Repository repo = builder.build()) {
+      SimplePartition.Splitter splitter = new LocalityPartition(repo)::splitJSON;
+      if (conf.getSchedule().equals("cost"))
+        splitter = new CostPartition(repo, conf.getDepth())::splitJSON;
+
+      return SimplePartition.splitFile(
+          conf.getNumberOfCPUS(), conf.getIssuePath(), "./issues", splitter);
+    } catch (IOException e) {
+      logger.warn(e.getMessage());
+      return new LinkedList<>();
+    }
+  }
+
+  /**
+   * Read and detect the revisions that the trace should look through, before the threads start,
+   * and save them with the results.
+   *
+   * @param conf the configuration that points out the ignored revisions and the repository.
+   */
+  private static void findIgnoredRevisions(Configuration conf) {
+    if (conf.getIgnoreRevsFile() == null && conf.getWhitespaceFiles() <= 0) return;
+
+    FileRepositoryBuilder builder = new FileRepositoryBuilder();
+    builder.setMustExist(true);
+    builder.addCeilingDirectory(new File(conf.getRepository()));
+    builder.findGitDir(new File(conf.getRepository()));
+
+    try (Repository repo = builder.build()) {
+      IgnoredRevisions ignored =
+          IgnoredRevisions.getInstance(
+              repo, conf.getIgnoreRevsFile(), conf.getWhitespaceFiles());
+
+      File resultPath = new File(conf.getResultPath());
+      resultPath.mkdirs();
+      ignored.save(new File(resultPath, "ignored_revs.txt"));
+    } catch (IOException e) {
+      logger.warn(e.getMessage());
+    }
+  }
+
+  /**
+   * Build the issue file from the issues fetched from Jira.
+   *
+   * @param conf the configuration that points out the issues and the repository.
+   * @return if the issue file was built or not.
+   */
+  private static boolean buildIssueList(Configuration conf) {
+    logger.info("Building the issue list from " + conf.getJiraIssuePath());
+
+    FileRepositoryBuilder builder = new FileRepositoryBuilder();
+    builder.setMustExist(true);
+    builder.addCeilingDirectory(new File(conf.getRepository()));
+    builder.findGitDir(new File(conf.getRepository()));
+
+    try (Repository repo = builder.build()) {
+      IssueLinker linker = new IssueLinker(repo, conf.getGitlogPattern(), logger);
+      linker.saveIssueList(conf.getJiraIssuePath(), conf.getIssuePath());
+    } catch (IOException | GitAPIException | ParseException e) {
+      logger.warn(e.getMessage());
+      return false;
+    }
+    return true;
   }
 }
@@ -37,6 +37,10 @@ public class Issues {
 
   public Set<RevCommit> revisions;
   public Map<String, Map<String, String>> dates;
+  public Map<String, Double> costs = new HashMap<>();
+
+  /** The issues that each change fixes, in the order of the issue file, with their dates. */
+  public Map<String, Map<String, Map<String, String>>> fixedIssues = new HashMap<>();
 
   /**
    * Return the three dates for a change. The dates are the commit date, the resolution date and the
@@ -68,4 +72,28 @@ public class Issues {
     }
     return new HashMap<>();
   }
+
+  /**
+   * Return the issues that a change fixes, with the three dates of each issue. Several issues may
+   * reference the same change. If no issues are known, the change is its own issue.
+   *
+   * @param commit the hash of the referencing commit.
+   * @return a map from the issues to their dates.
+   */
+  public Map<String, Map<String, String>> getIssues(String commit) {
+    if (fixedIssues.containsKey(commit)) {
+      return fixedIssues.get(commit);
+    }
+    return Collections.singletonMap(commit, get(commit));
+  }
+
+  /**
+   * Return the estimated cost of tracing a change, if the issues were scheduled by cost.
+   *
+   * @param commit the hash of the referencing commit.
+   * @return the estimated cost or zero if there is no estimate.
+   */
+  public double getCost(String commit) {
+    return costs.getOrDefault(commit, 0.0);
+  }
 }
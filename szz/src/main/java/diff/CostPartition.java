@@ -0,0 +1,277 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package diff;
+
+import index.ChangedPathIndex;
+import index.CommitIndex;
+import java.io.*;
+import java.util.*;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import parser.GitParser;
+import util.JSONUtil;
+
+/**
+ * A partitioning that starts the most expensive fixes first.
+ *
+ * <p>The cost of a fix is estimated from its diff against the first parent. Each changed file is
+ * blamed once per depth level, and a blame costs about as much as the size of the file and the
+ * number of lines that are traced. The number of levels is bounded by the number of earlier
+ * commits that changed the file. The fixes are then given to the threads with the longest
+ * processing time first rule: the most expensive fix goes to the thread with the least estimated
+ * work. The estimate is written to each issue as "cost" so that the parsers can log the time
+ * that is left and compare the estimate with the actual time.
+ *
+ * <p>The parsers trace the fixes in the order of their chunk. Only when the file history is
+ * shared between the fixes, with -fh or -pi, are they traced by file instead.
+ *
+ * @author Oscar Svensson
+ */
+public class CostPartition {
+
+  private static final Logger logger = LoggerFactory.getLogger(CostPartition.class);
+
+  private static String COSTREPORTPATH = "cost_report.json";
+
+  private Repository repo;
+  private int depth;
+
+  /** The issues that reference the same fix commit. */
+  private static class Fix {
+    private List<String> keys = new ArrayList<>();
+    private double cost;
+  }
+
+  public CostPartition(Repository repo, int depth) {
+    this.repo = repo;
+    this.depth = Math.max(1, depth);
+  }
+
+  /**
+   * Split an issue file into one file per partition.
+   *
+   * @param partitions the number of partitions.
+   * @param path the path to the issue file.
+   * @param resPath the directory where the partitions are written.
+   * @return the paths to the partitions.
+   */
+  public List<String> splitJSON(int partitions, String path, String resPath) {
+    List<String> paths = new ArrayList<>();
+
+    try {
+      Map<String, Object> issues = JSONUtil.readOrderedObject(path);
+      List<Fix> fixes = estimate(issues);
+
+      fixes.sort(Comparator.comparingDouble((Fix fix) -> fix.cost).reversed());
+
+      List<Map<String, Object>> chunks = new ArrayList<>();
+      double[] loads = new double[partitions];
+      for (int i = 0; i < partitions; i++) chunks.add(new LinkedHashMap<>());
+
+      for (Fix fix : fixes) {
+        int least = 0;
+        for (int i = 1; i < partitions; i++) {
+          if (loads[i] < loads[least]) least = i;
+        }
+        loads[least] += fix.cost;
+
+        for (String key : fix.keys) {
+          Map<String, Object> info = new LinkedHashMap<>(JSONUtil.asObject(issues.get(key)));
+          info.put("cost", fix.cost);
+          chunks.get(least).put(key, info);
+        }
+      }
+
+      for (int i = 0; i < partitions; i++) {
+        paths.add(
+            SimplePartition.writeChunk(JSONObject.toJSONString(chunks.get(i)), i, resPath));
+      }
+
+      double total = Arrays.stream(loads).sum();
+      double largest = Arrays.stream(loads).max().orElse(0);
+      logger.info(
+          String.format(
+              "Estimated a cost of %.0f for %d fixes, the largest thread got %.0f of it.",
+              total, fixes.size(), largest));
+    } catch (IOException | ParseException e) {
+      e.printStackTrace();
+      return new LinkedList<>();
+    }
+
+    return paths;
+  }
+
+  /** Estimate the cost of each fix commit. Issues that reference the same commit share a fix. */
+  private List<Fix> estimate(Map<String, Object> issues) throws IOException {
+    CommitIndex index = CommitIndex.getInstance(this.repo);
+    ChangedPathIndex changedPaths = ChangedPathIndex.getInstance(this.repo);
+
+    Map<String, Fix> fixes = new LinkedHashMap<>();
+    try (DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
+        ObjectReader reader = this.repo.newObjectReader()) {
+      formatter.setRepository(this.repo);
+
+      for (Map.Entry<String, Object> issue : issues.entrySet()) {
+        Object hash = JSONUtil.asObject(issue.getValue()).get("hash");
+        int ordinal = index != null && hash != null ? index.resolve(hash.toString()) : -1;
+
+        String key = ordinal >= 0 ? index.getId(ordinal).getName() : issue.getKey();
+        if (!fixes.containsKey(key)) {
+          Fix fix = new Fix();
+          if (ordinal >= 0) fix.cost = estimate(index, changedPaths, formatter, reader, ordinal);
+          fixes.put(key, fix);
+        }
+        fixes.get(key).keys.add(issue.getKey());
+      }
+    }
+    return new ArrayList<>(fixes.values());
+  }
+
+  /** Estimate the cost of tracing the files that a commit changed. */
+  private double estimate(
+      CommitIndex index,
+      ChangedPathIndex changedPaths,
+      DiffFormatter formatter,
+      ObjectReader reader,
+      int ordinal)
+      throws IOException {
+    int parent = index.getFirstParent(ordinal);
+    if (parent < 0) return 0;
+
+    double cost = 0;
+    for (DiffEntry entry : formatter.scan(index.getTree(parent), index.getTree(ordinal))) {
+      if (entry.getChangeType() == DiffEntry.ChangeType.ADD) continue;
+
+      int deletions = 0;
+      for (Edit edit : formatter.toFileHeader(entry).toEditList()) {
+        deletions += edit.getLengthA();
+      }
+      long size = reader.getObjectSize(entry.getOldId().toObjectId(), Constants.OBJ_BLOB);
+      int levels = getHistoryLength(index, changedPaths, parent, entry.getOldPath());
+
+      cost += (1 + deletions / 10.0 + size / 1024.0) * levels;
+    }
+    return cost;
+  }
+
+  /**
+   * Count the commits that changed a path along the first parents, up to the depth. Without the
+   * changed path filters every level is assumed to be traced.
+   */
+  private int getHistoryLength(
+      CommitIndex index, ChangedPathIndex changedPaths, int ordinal, String path) {
+    if (changedPaths == null) return this.depth;
+
+    int length = 0;
+    int current = ordinal;
+    while (current >= 0 && length < this.depth) {
+      current = changedPaths.findLastChange(current, path);
+      if (!changedPaths.mightHaveChanged(current, path)) break;
+
+      length++;
+      current = index.getFirstParent(current);
+    }
+    return Math.max(1, length);
+  }
+
+  /**
+   * Save the estimated and the actual cost of each traced fix and log how well they agree. The
+   * actual cost is the time spent on tracing the files of a fix.
+   *
+   * @param parsers the parsers of the threads.
+   * @param path the directory to write the report to.
+   */
+  public static void saveReport(List<GitParser> parsers, String path) {
+    List<Map<String, Object>> report = new ArrayList<>();
+
+    List<double[]> samples = new ArrayList<>();
+    for (int thread = 0; thread < parsers.size(); thread++) {
+      GitParser parser = parsers.get(thread);
+      if (parser == null || parser.getIssues() == null) continue;
+
+      double estimated = 0;
+      double actual = 0;
+      for (Map.Entry<String, Long> time : parser.getTraceTimes().entrySet()) {
+        double cost = parser.getIssues().getCost(time.getKey());
+        double seconds = time.getValue() / 1e9;
+
+        Map<String, Object> fix = new LinkedHashMap<>();
+        fix.put("hash", time.getKey());
+        fix.put("thread", thread);
+        fix.put("estimate", cost);
+        fix.put("seconds", seconds);
+        report.add(fix);
+
+        samples.add(new double[] {cost, seconds});
+        estimated += cost;
+        actual += seconds;
+      }
+
+      logger.info(
+          String.format(
+              "Thread %d: estimated a cost of %.0f, traced in %.1f seconds.",
+              thread, estimated, actual));
+    }
+
+    try (FileWriter writer = new FileWriter(path + "/" + COSTREPORTPATH)) {
+      writer.write(JSONArray.toJSONString(report));
+      writer.flush();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    logger.info(
+        String.format(
+            "The correlation between the estimated and the actual cost was %.2f.",
+            correlation(samples)));
+  }
+
+  private static double correlation(List<double[]> samples) {
+    int n = samples.size();
+    if (n < 2) return 0;
+
+    double sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+    for (double[] s : samples) {
+      sx += s[0];
+      sy += s[1];
+      sxx += s[0] * s[0];
+      syy += s[1] * s[1];
+      sxy += s[0] * s[1];
+    }
+
+    double denominator = Math.sqrt((n * sxx - sx * sx) * (n * syy - sy * sy));
+    return denominator == 0 ? 0 : (n * sxy - sx * sy) / denominator;
+  }
+}
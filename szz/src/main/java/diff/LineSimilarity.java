@@ -0,0 +1,199 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package diff;
+
+import java.util.*;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A similarity engine that computes the Jaccard distance between lines using 2-shingles.
+ *
+ * <p>Gives the same distances as the Jaccard(2) measurement from java-string-similarity, but each
+ * line is only shingled once. A 2-shingle consists of two chars and is therefore packed without
+ * collisions into a single int. A profile is the sorted set of these ints which makes it possible
+ * to compute the distance between two lines with a single merge.
+ *
+ * <p>The profiles of a blob are cached since the same blob is compared in many revisions.
+ *
+ * @author Oscar Svensson
+ */
+public class LineSimilarity {
+
+  private static final int DEFAULT_CACHED_BLOBS = 256;
+
+  private Map<ObjectId, Profile[]> blobProfiles;
+
+  /** The shingle profile of a single line. */
+  public static class Profile {
+    public final String line;
+    public final int[] shingles;
+
+    private Profile(String line, int[] shingles) {
+      this.line = line;
+      this.shingles = shingles;
+    }
+  }
+
+  public LineSimilarity() {
+    this(DEFAULT_CACHED_BLOBS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param cachedBlobs the maximum number of blobs that have their profiles cached.
+   */
+  public LineSimilarity(int cachedBlobs) {
+    this.blobProfiles =
+        Collections.synchronizedMap(
+            new LinkedHashMap<ObjectId, Profile[]>(16, 0.75f, true) {
+              protected boolean removeEldestEntry(Map.Entry<ObjectId, Profile[]> eldest) {
+                return size() > cachedBlobs;
+              }
+            });
+  }
+
+  /**
+   * Compute the profile of a line. Whitespace sequences are treated as a single space.
+   *
+   * @param line the line to compute the profile for.
+   * @return the profile of the line.
+   */
+  public static Profile profile(String line) {
+    int length = line.length();
+    int[] shingles = new int[Math.max(length - 1, 0)];
+    int count = 0;
+
+    char previous = 0;
+    boolean hasPrevious = false;
+    boolean inSpace = false;
+    for (int i = 0; i < length; i++) {
+      char c = line.charAt(i);
+      if (isSpace(c)) {
+        if (inSpace) continue;
+        inSpace = true;
+        c = ' ';
+      } else {
+        inSpace = false;
+      }
+
+      if (hasPrevious) shingles[count++] = (previous << 16) | c;
+      previous = c;
+      hasPrevious = true;
+    }
+
+    Arrays.sort(shingles, 0, count);
+
+    int unique = 0;
+    for (int i = 0; i < count; i++) {
+      if (unique == 0 || shingles[unique - 1] != shingles[i]) shingles[unique++] = shingles[i];
+    }
+
+    return new Profile(line, Arrays.copyOf(shingles, unique));
+  }
+
+  /**
+   * Get the profiles for all lines in a blob. The profiles are computed lazily, once per line.
+   *
+   * @param blob the id of the blob that contains the lines.
+   * @param lines the lines of the blob.
+   * @return an array that is filled with profiles by {@link #profile(Profile[], List, int)}.
+   */
+  public Profile[] getBlobProfiles(ObjectId blob, List<String> lines) {
+    return blobProfiles.computeIfAbsent(blob, b -> new Profile[lines.size()]);
+  }
+
+  /**
+   * Get the profile of a line in a blob, computing it if it hasn't been done before.
+   *
+   * @param profiles the cached profiles of the blob.
+   * @param lines the lines of the blob.
+   * @param index the index of the line.
+   * @return the profile of the line.
+   */
+  public static Profile profile(Profile[] profiles, List<String> lines, int index) {
+    Profile profile = profiles[index];
+    if (profile == null) {
+      profile = profile(lines.get(index));
+      profiles[index] = profile;
+    }
+    return profile;
+  }
+
+  /**
+   * Compute the Jaccard distance between two lines.
+   *
+   * @param a the profile of the first line.
+   * @param b the profile of the second line.
+   * @return the distance, between 0.0 and 1.0.
+   */
+  public static double distance(Profile a, Profile b) {
+    if (a.line.equals(b.line)) return 0.0;
+
+    int[] sa = a.shingles;
+    int[] sb = b.shingles;
+    int i = 0, j = 0, intersection = 0;
+    while (i < sa.length && j < sb.length) {
+      if (sa[i] == sb[j]) {
+        intersection++;
+        i++;
+        j++;
+      } else if (sa[i] < sb[j]) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+
+    int union = sa.length + sb.length - intersection;
+    return 1.0 - (double) intersection / union;
+  }
+
+  /**
+   * Compute the distances between a batch of line pairs.
+   *
+   * @param a the profiles of the first lines.
+   * @param b the profiles of the second lines, paired by index with the first lines.
+   * @return the distance for each pair.
+   */
+  public static double[] distances(List<Profile> a, List<Profile> b) {
+    if (a.size() != b.size()) {
+      throw new IllegalArgumentException("The batches must be of the same size!");
+    }
+
+    double[] distances = new double[a.size()];
+    Iterator<Profile> ia = a.iterator();
+    Iterator<Profile> ib = b.iterator();
+    for (int i = 0; i < distances.length; i++) {
+      distances[i] = distance(ia.next(), ib.next());
+    }
+    return distances;
+  }
+
+  /** The same whitespace chars as the \s regex class. */
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
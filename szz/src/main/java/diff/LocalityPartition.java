@@ -0,0 +1,274 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package diff;
+
+import index.CommitIndex;
+import java.io.*;
+import java.util.*;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.JSONUtil;
+
+/**
+ * A partitioning that keeps issues whose fixes touch the same files on the same thread.
+ *
+ * <p>The issues are clustered by the files that their fixes changed. Issues that share a file are
+ * joined in history order, as long as a cluster doesn't grow beyond an even share of the issues.
+ * Issues that reference the same commit always end up in the same cluster. The clusters are then
+ * given to the least loaded thread, largest first. Each thread gets its clusters one after the
+ * other and the issues of a cluster newest first, so that the work on the same files is close
+ * together in time.
+ *
+ * @author Oscar Svensson
+ */
+public class LocalityPartition {
+
+  private static final Logger logger = LoggerFactory.getLogger(LocalityPartition.class);
+
+  private Repository repo;
+
+  /** An issue together with the fix commit it references. */
+  private static class Issue {
+    private String key;
+    private Object info;
+    private int ordinal = -1;
+    private Set<String> paths = new HashSet<>();
+  }
+
+  public LocalityPartition(Repository repo) {
+    this.repo = repo;
+  }
+
+  /**
+   * Split an issue file into one file per partition.
+   *
+   * @param partitions the number of partitions.
+   * @param path the path to the issue file.
+   * @param resPath the directory where the partitions are written.
+   * @return the paths to the partitions.
+   */
+  public List<String> splitJSON(int partitions, String path, String resPath) {
+    List<String> paths = new ArrayList<>();
+
+    try {
+      Map<String, Object> issueObject = JSONUtil.readOrderedObject(path);
+      List<Issue> issues = readIssues(issueObject);
+
+      List<List<Issue>> partitioned = partition(cluster(issues, partitions), partitions);
+      for (int i = 0; i < partitions; i++) {
+        Map<String, Object> chunkObject = new LinkedHashMap<>();
+        for (Issue issue : partitioned.get(i)) chunkObject.put(issue.key, issue.info);
+
+        paths.add(
+            SimplePartition.writeChunk(JSONObject.toJSONString(chunkObject), i, resPath));
+      }
+    } catch (IOException | ParseException e) {
+      e.printStackTrace();
+      return new LinkedList<>();
+    }
+
+    return paths;
+  }
+
+  /** Resolve the fix commits of the issues and the files that they changed. */
+  private List<Issue> readIssues(Map<String, Object> issueObject) throws IOException {
+    CommitIndex index = CommitIndex.getInstance(this.repo);
+
+    List<Issue> issues = new ArrayList<>();
+    for (Map.Entry<String, Object> entry : issueObject.entrySet()) {
+      Issue issue = new Issue();
+      issue.key = entry.getKey();
+      issue.info = entry.getValue();
+
+      Object hash = JSONUtil.asObject(entry.getValue()).get("hash");
+      if (index != null && hash != null) issue.ordinal = index.resolve(hash.toString());
+      if (issue.ordinal >= 0) issue.paths = getChangedPaths(index, issue.ordinal);
+
+      issues.add(issue);
+    }
+    return issues;
+  }
+
+  /** Find the files that a commit changed compared with its first parent. */
+  private Set<String> getChangedPaths(CommitIndex index, int ordinal) throws IOException {
+    Set<String> paths = new HashSet<>();
+    try (TreeWalk walk = new TreeWalk(this.repo)) {
+      int parent = index.getFirstParent(ordinal);
+      if (parent >= 0) walk.addTree(index.getTree(parent));
+      else walk.addTree(new EmptyTreeIterator());
+      walk.addTree(index.getTree(ordinal));
+      walk.setRecursive(true);
+      walk.setFilter(TreeFilter.ANY_DIFF);
+
+      while (walk.next()) paths.add(walk.getPathString());
+    }
+    return paths;
+  }
+
+  /**
+   * Cluster the issues by the files they changed. The files that most issues changed are handled
+   * first and their issues are joined in history order until a cluster is full.
+   */
+  private List<List<Issue>> cluster(List<Issue> issues, int partitions) {
+    int limit = Math.max(1, (issues.size() + partitions - 1) / partitions);
+
+    int[] parents = new int[issues.size()];
+    int[] sizes = new int[issues.size()];
+    for (int i = 0; i < parents.length; i++) {
+      parents[i] = i;
+      sizes[i] = 1;
+    }
+
+    /*
+     * Issues that reference the same commit are always traced together.
+     */
+    Map<Integer, Integer> byCommit = new HashMap<>();
+    for (int i = 0; i < issues.size(); i++) {
+      int ordinal = issues.get(i).ordinal;
+      if (ordinal < 0) continue;
+      if (byCommit.containsKey(ordinal)) union(parents, sizes, byCommit.get(ordinal), i);
+      else byCommit.put(ordinal, i);
+    }
+
+    Map<String, List<Integer>> byPath = new HashMap<>();
+    for (int i = 0; i < issues.size(); i++) {
+      for (String path : issues.get(i).paths) {
+        if (!byPath.containsKey(path)) byPath.put(path, new ArrayList<>());
+        byPath.get(path).add(i);
+      }
+    }
+
+    List<Map.Entry<String, List<Integer>>> sharedPaths = new ArrayList<>(byPath.entrySet());
+    sharedPaths.sort(
+        Comparator.comparingInt((Map.Entry<String, List<Integer>> e) -> -e.getValue().size())
+            .thenComparing(Map.Entry::getKey));
+
+    for (Map.Entry<String, List<Integer>> path : sharedPaths) {
+      List<Integer> members = path.getValue();
+      if (members.size() < 2) break;
+
+      members.sort(Comparator.comparingInt(i -> issues.get(i).ordinal));
+      int anchor = members.get(0);
+      for (int member : members.subList(1, members.size())) {
+        int a = find(parents, anchor);
+        int b = find(parents, member);
+        if (a == b) continue;
+        if (sizes[a] + sizes[b] <= limit) union(parents, sizes, a, b);
+        else anchor = member;
+      }
+    }
+
+    Map<Integer, List<Issue>> clusters = new LinkedHashMap<>();
+    for (int i = 0; i < issues.size(); i++) {
+      int root = find(parents, i);
+      if (!clusters.containsKey(root)) clusters.put(root, new ArrayList<>());
+      clusters.get(root).add(issues.get(i));
+    }
+
+    List<List<Issue>> result = new ArrayList<>(clusters.values());
+    for (List<Issue> cluster : result) {
+      cluster.sort(Comparator.comparingInt((Issue issue) -> issue.ordinal).reversed());
+    }
+    return result;
+  }
+
+  /**
+   * Give the clusters to the partitions, largest cluster first to the partition with the fewest
+   * issues. Within a partition the clusters are ordered newest first.
+   */
+  private List<List<Issue>> partition(List<List<Issue>> clusters, int partitions) {
+    clusters.sort(
+        Comparator.comparingInt((List<Issue> c) -> -c.size())
+            .thenComparingInt(c -> -c.get(0).ordinal));
+
+    List<List<List<Issue>>> assigned = new ArrayList<>();
+    int[] loads = new int[partitions];
+    for (int i = 0; i < partitions; i++) assigned.add(new ArrayList<>());
+
+    for (List<Issue> cluster : clusters) {
+      int least = 0;
+      for (int i = 1; i < partitions; i++) {
+        if (loads[i] < loads[least]) least = i;
+      }
+      assigned.get(least).add(cluster);
+      loads[least] += cluster.size();
+    }
+
+    int shared = 0;
+    int total = 0;
+    List<List<Issue>> partitioned = new ArrayList<>();
+    for (List<List<Issue>> partition : assigned) {
+      partition.sort(Comparator.comparingInt((List<Issue> c) -> -c.get(0).ordinal));
+
+      List<Issue> issues = new ArrayList<>();
+      Map<String, Integer> pathCounts = new HashMap<>();
+      for (List<Issue> cluster : partition) {
+        issues.addAll(cluster);
+        for (Issue issue : cluster) {
+          for (String path : issue.paths) pathCounts.merge(path, 1, Integer::sum);
+        }
+      }
+      for (int count : pathCounts.values()) {
+        shared += count - 1;
+        total += count;
+      }
+      partitioned.add(issues);
+    }
+
+    logger.info(
+        String.format(
+            "Scheduled %d clusters over %d threads, %d of %d file changes share a file with an "
+                + "earlier change on the same thread.",
+            clusters.size(), partitions, shared, total));
+    return partitioned;
+  }
+
+  private static int find(int[] parents, int i) {
+    while (parents[i] != i) {
+      parents[i] = parents[parents[i]];
+      i = parents[i];
+    }
+    return i;
+  }
+
+  private static void union(int[] parents, int[] sizes, int a, int b) {
+    a = find(parents, a);
+    b = find(parents, b);
+    if (a == b) return;
+    if (sizes[a] < sizes[b]) {
+      int tmp = a;
+      a = b;
+      b = tmp;
+    }
+    parents[b] = a;
+    sizes[a] += sizes[b];
+  }
+}
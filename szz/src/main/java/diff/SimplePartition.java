@@ -24,6 +24,7 @@
 
 package diff;
 
+import heuristics.BugFinderFactory;
 import java.io.*;
 import java.util.*;
 import org.apache.commons.io.FilenameUtils;
@@ -31,6 +32,7 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import util.Configuration;
 
 /**
  * A class which partitions the commits into evenly partitions.
@@ -41,8 +43,12 @@ public class SimplePartition {
 
   private static String ANNOTATIONPATH = "annotations.json",
       COMMITSPATH = "commits.json",
+      DEGRADEDPATH = "degraded.json",
+      ISSUEINTRODUCERSPATH = "issue_and_introducers_pairs.json",
+      SUMMARIZEDPATH = "summarized.json",
       FIXINTRODUCERSPATH = "fix_and_introducers_pairs.json",
-      SUBFIXINTRODUCERSPATH = "fix_and_introducers_pairs_%d.json";
+      SUBFIXINTRODUCERSPATH = "fix_and_introducers_pairs_%d.json",
+      FINDERFIXINTRODUCERSPATH = "fix_and_introducers_pairs_%s.json";
 
   private static List<String> splitJSON(int partitions, String path, String resPath) {
 
@@ -70,25 +76,33 @@ public class SimplePartition {
         chunks.add(chunk);
       }
 
-      List<String> keys = new ArrayList<>(issues.keySet());
+      /*
+       * Issues that reference the same commit are kept in the same chunk, so that the commit is
+       * only traced once.
+       */
+      Map<Object, List<String>> fixes = new LinkedHashMap<>();
+      for (Object key : issues.keySet()) {
+        Object hash = ((JSONObject) issues.get(key)).get("hash");
+        if (hash == null) hash = key;
 
-      for (int i = 0; i < partitions; i++) {
-        JSONObject chunkObject = new JSONObject();
-        Integer[] chunk = chunks.get(i);
+        if (!fixes.containsKey(hash)) fixes.put(hash, new ArrayList<>());
+        fixes.get(hash).add(key.toString());
+      }
 
-        int limit = i < partitions - 1 ? chunk[1] : chunk[1] - 1;
-        for (int start = chunk[0]; start <= limit; start++) {
-          String key = keys.get(start);
-          chunkObject.put(key, issues.get(key));
-        }
+      List<JSONObject> chunkObjects = new ArrayList<>();
+      for (int i = 0; i < partitions; i++) chunkObjects.add(new JSONObject());
 
-        String chunkPath = resPath + "/" + String.format(SUBFIXINTRODUCERSPATH, i);
+      int chunk = 0;
+      int count = 0;
+      for (List<String> keys : fixes.values()) {
+        while (chunk < partitions - 1 && count > chunks.get(chunk)[1]) chunk++;
 
-        FileWriter writer = new FileWriter(chunkPath);
-        writer.write(chunkObject.toJSONString());
-        writer.flush();
+        for (String key : keys) chunkObjects.get(chunk).put(key, issues.get(key));
+        count += keys.size();
+      }
 
-        paths.add(chunkPath);
+      for (int i = 0; i < partitions; i++) {
+        paths.add(writeChunk(chunkObjects.get(i).toJSONString(), i, resPath));
       }
 
     } catch (IOException | ParseException e) {
@@ -99,7 +113,36 @@ public class SimplePartition {
     return paths;
   }
 
+  /**
+   * Write the issues of a partition to a file.
+   *
+   * @param json the issues as a JSON string.
+   * @param partition the number of the partition.
+   * @param resPath the directory to write the file to.
+   * @return the path to the file.
+   */
+  static String writeChunk(String json, int partition, String resPath) throws IOException {
+    String chunkPath = resPath + "/" + String.format(SUBFIXINTRODUCERSPATH, partition);
+
+    try (FileWriter writer = new FileWriter(chunkPath)) {
+      writer.write(json);
+      writer.flush();
+    }
+
+    return chunkPath;
+  }
+
+  /** Splits an issue file into one file per partition. */
+  public interface Splitter {
+    public List<String> split(int partitions, String path, String resPath);
+  }
+
   public static List<String> splitFile(int partitions, String path, String resPath) {
+    return splitFile(partitions, path, resPath, SimplePartition::splitJSON);
+  }
+
+  public static List<String> splitFile(
+      int partitions, String path, String resPath, Splitter splitter) {
     List<String> paths = new LinkedList<>();
 
     File f = new File(path);
@@ -118,7 +161,7 @@ public class SimplePartition {
 
     String extension = FilenameUtils.getExtension(path);
     if (extension.equals("json")) {
-      paths = SimplePartition.splitJSON(partitions, path, resPath);
+      paths = splitter.split(partitions, path, resPath);
     } else {
       System.err.println("Unknown filetype...");
       return new LinkedList<>();
@@ -131,6 +174,20 @@ public class SimplePartition {
     List<JSONObject> commits = new LinkedList<>();
     List<JSONObject> annotations = new LinkedList<>();
     List<JSONArray> fix_and_introducers_pairs = new LinkedList<>();
+    JSONObject degradedObject = new JSONObject();
+    JSONObject issueObject = new JSONObject();
+    JSONObject summarizedObject = new JSONObject();
+
+    /*
+     * When several bugfinders are run, each of them has its own pairs.
+     */
+    Map<String, JSONArray> finderPairs = new LinkedHashMap<>();
+    List<Integer> bugFinders = Configuration.getInstance().getBugFinders();
+    if (bugFinders.size() > 1) {
+      for (int bugFinder : bugFinders) {
+        finderPairs.put(BugFinderFactory.getName(bugFinder), new JSONArray());
+      }
+    }
 
     JSONParser parser = new JSONParser();
     for (String path : resPaths) {
@@ -145,6 +202,29 @@ public class SimplePartition {
           JSONArray pair =
               (JSONArray) parser.parse(new FileReader(path + "/" + FIXINTRODUCERSPATH));
           fix_and_introducers_pairs.add(pair);
+
+          for (Map.Entry<String, JSONArray> finder : finderPairs.entrySet()) {
+            File finderPair =
+                new File(path + "/" + String.format(FINDERFIXINTRODUCERSPATH, finder.getKey()));
+            if (finderPair.exists()) {
+              finder.getValue().addAll((JSONArray) parser.parse(new FileReader(finderPair)));
+            }
+          }
+
+          File degraded = new File(path + "/" + DEGRADEDPATH);
+          if (degraded.exists()) {
+            degradedObject.putAll((JSONObject) parser.parse(new FileReader(degraded)));
+          }
+
+          File issuePairs = new File(path + "/" + ISSUEINTRODUCERSPATH);
+          if (issuePairs.exists()) {
+            issueObject.putAll((JSONObject) parser.parse(new FileReader(issuePairs)));
+          }
+
+          File summarized = new File(path + "/" + SUMMARIZEDPATH);
+          if (summarized.exists()) {
+            summarizedObject.putAll((JSONObject) parser.parse(new FileReader(summarized)));
+          }
         } catch (IOException | ParseException e) {
           e.printStackTrace();
         }
@@ -198,5 +278,43 @@ public class SimplePartition {
     } catch (IOException e) {
       e.printStackTrace();
     }
+
+    for (Map.Entry<String, JSONArray> finder : finderPairs.entrySet()) {
+      try (FileWriter writer =
+          new FileWriter(
+              resPath + "/" + String.format(FINDERFIXINTRODUCERSPATH, finder.getKey()))) {
+        writer.write(finder.getValue().toJSONString());
+        writer.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    if (!issueObject.isEmpty()) {
+      try (FileWriter writer = new FileWriter(resPath + "/" + ISSUEINTRODUCERSPATH)) {
+        writer.write(issueObject.toJSONString());
+        writer.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    if (!summarizedObject.isEmpty()) {
+      try (FileWriter writer = new FileWriter(resPath + "/" + SUMMARIZEDPATH)) {
+        writer.write(summarizedObject.toJSONString());
+        writer.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    if (!degradedObject.isEmpty()) {
+      try (FileWriter writer = new FileWriter(resPath + "/" + DEGRADEDPATH)) {
+        writer.write(degradedObject.toJSONString());
+        writer.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
   }
 }
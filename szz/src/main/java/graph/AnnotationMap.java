@@ -28,7 +28,7 @@ import java.io.*;
 import java.io.IOException;
 import java.util.*;
 import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
 
 /**
  * A class which represents Annotations between commits.
@@ -48,29 +48,33 @@ public class AnnotationMap<K, V> extends HashMap<K, V> {
    * @param path the path to the directory where the JSON file will be written.
    */
   public void saveToJSON(String path) {
-    Set<Map.Entry<K, V>> entries = entrySet();
+    if (path == null) {
+      throw new IllegalArgumentException("Can't save AnnotationMap to a null path...");
+    }
 
-    JSONObject tree = new JSONObject();
-    for (Map.Entry<K, V> entry : entries) {
-      String commit = (String) entry.getKey();
+    /*
+     * Write one commit at a time, so that only the JSON of a single commit is in memory.
+     */
+    try (Writer file = new BufferedWriter(new FileWriter(path + "/" + "annotations.json"))) {
+      boolean first = true;
+      file.write('{');
+      for (Map.Entry<K, V> entry : entrySet()) {
+        String commit = (String) entry.getKey();
 
-      JSONArray jFileObject = new JSONArray();
-      List<FileAnnotationGraph> graphs = (List<FileAnnotationGraph>) entry.getValue();
+        JSONArray jFileObject = new JSONArray();
+        List<FileAnnotationGraph> graphs = (List<FileAnnotationGraph>) entry.getValue();
 
-      for (FileAnnotationGraph graph : graphs) jFileObject.add(graph.getGraphJSON());
+        for (FileAnnotationGraph graph : graphs) jFileObject.add(graph.getGraphJSON());
 
-      tree.put(commit, jFileObject);
-    }
-
-    if (path != null) {
-      try (FileWriter file = new FileWriter(path + "/" + "annotations.json")) {
-        file.write(tree.toJSONString());
-        file.flush();
-      } catch (IOException e) {
-        e.printStackTrace();
+        if (!first) file.write(',');
+        first = false;
+        file.write("\"" + JSONValue.escape(commit) + "\":");
+        jFileObject.writeJSONString(file);
       }
-    } else {
-      throw new IllegalArgumentException("Can't save AnnotationMap to a null path...");
+      file.write('}');
+      file.flush();
+    } catch (IOException e) {
+      e.printStackTrace();
     }
   }
 }
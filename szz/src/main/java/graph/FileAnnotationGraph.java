@@ -24,7 +24,9 @@
 
 package graph;
 
+import java.io.*;
 import java.util.*;
+import org.eclipse.jgit.api.errors.GitAPIException;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -43,6 +45,70 @@ public class FileAnnotationGraph {
   public Map<String, Map<Integer, Integer>> mappings;
   public Map<String, FileAnnotationGraph> sub_graphs;
 
+  /** If the trace was cut short by its budget, so that some subgraphs are missing. */
+  public boolean truncated = false;
+
+  /** Visits the graphs of a traversal. */
+  public interface Visitor {
+    /**
+     * Visit a graph.
+     *
+     * @param graph the visited graph.
+     * @return false if the traversal should stop.
+     */
+    public boolean visit(FileAnnotationGraph graph) throws IOException, GitAPIException;
+  }
+
+  /** A graph on the stack of a traversal and the subgraphs that are left to visit. */
+  private static class Frame {
+    private FileAnnotationGraph graph;
+    private int level;
+    private Iterator<FileAnnotationGraph> subGraphs;
+
+    Frame(FileAnnotationGraph graph, int level, int maxLevel) {
+      this.graph = graph;
+      this.level = level;
+      this.subGraphs = level < maxLevel ? graph.sub_graphs.values().iterator() : null;
+    }
+  }
+
+  /**
+   * Visit the graphs and their subgraphs down to a level, where the given graphs are the first
+   * level. A graph is visited after its subgraphs, and a graph that is reached more than once is
+   * only visited the first time. The subgraphs of the last level are never looked at, so lazy
+   * subgraphs below it are never traced.
+   *
+   * @param graphs the graphs to start from.
+   * @param maxLevel the deepest level to visit.
+   * @param visitor the visitor.
+   * @return false if the visitor stopped the traversal.
+   */
+  public static boolean traverse(
+      Collection<FileAnnotationGraph> graphs, int maxLevel, Visitor visitor)
+      throws IOException, GitAPIException {
+    Set<FileAnnotationGraph> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<Frame> stack = new ArrayDeque<>();
+
+    for (FileAnnotationGraph graph : graphs) {
+      if (graph == null || !seen.add(graph)) continue;
+      stack.push(new Frame(graph, 1, maxLevel));
+
+      while (!stack.isEmpty()) {
+        Frame frame = stack.peek();
+        if (frame.subGraphs != null && frame.subGraphs.hasNext()) {
+          FileAnnotationGraph subGraph = frame.subGraphs.next();
+          if (subGraph != null && seen.add(subGraph)) {
+            stack.push(new Frame(subGraph, frame.level + 1, maxLevel));
+          }
+        } else {
+          stack.pop();
+          if (!visitor.visit(frame.graph)) return false;
+        }
+      }
+    }
+    return true;
+  }
+
   /**
    * Get line mapping for a specific revison to its successor. Returns an empty map if the given
    * revision is the first aka the one that was used to create this grap.
@@ -105,13 +171,107 @@ public class FileAnnotationGraph {
 
     tree.put("mappings", jsonLineMappings);
 
+    /*
+     * Subgraphs that were never needed are left out, instead of being traced just to be saved.
+     */
     JSONObject subGraphs = new JSONObject();
-    for (Map.Entry<String, FileAnnotationGraph> entry : this.sub_graphs.entrySet()) {
-      subGraphs.put(entry.getKey(), entry.getValue().getGraphJSON());
+    boolean traced =
+        !(this.sub_graphs instanceof LazySubGraphMap)
+            || ((LazySubGraphMap) this.sub_graphs).isTraced();
+    if (!traced) {
+      tree.put("traced", false);
+    } else {
+      for (Map.Entry<String, FileAnnotationGraph> entry : this.sub_graphs.entrySet()) {
+        subGraphs.put(entry.getKey(), entry.getValue().getGraphJSON());
+      }
     }
 
     tree.put("subgraphs", subGraphs);
+    if (this.truncated) tree.put("truncated", true);
 
     return tree;
   }
+
+  /**
+   * Write the graph and its subgraphs in a compact binary form. Lazy subgraphs that haven't been
+   * traced are not traced, their tracers are collected instead and only referred to.
+   *
+   * @param out the stream to write to.
+   * @param tracers the list that the tracers of the untraced subgraphs are added to.
+   */
+  public void writeTo(DataOutputStream out, List<LazySubGraphMap.Tracer> tracers)
+      throws IOException {
+    out.writeUTF(this.filePath);
+    out.writeBoolean(this.truncated);
+
+    out.writeInt(this.revisions.size());
+    for (String rev : this.revisions) out.writeUTF(rev);
+
+    out.writeInt(this.mappings.size());
+    for (Map.Entry<String, Map<Integer, Integer>> mapping : this.mappings.entrySet()) {
+      out.writeUTF(mapping.getKey());
+      out.writeInt(mapping.getValue().size());
+      for (Map.Entry<Integer, Integer> line : mapping.getValue().entrySet()) {
+        out.writeInt(line.getKey());
+        out.writeInt(line.getValue());
+      }
+    }
+
+    LazySubGraphMap.Tracer tracer =
+        this.sub_graphs instanceof LazySubGraphMap
+            ? ((LazySubGraphMap) this.sub_graphs).getTracer()
+            : null;
+    out.writeBoolean(tracer == null);
+    if (tracer != null) {
+      out.writeInt(tracers.size());
+      tracers.add(tracer);
+      return;
+    }
+
+    out.writeInt(this.sub_graphs.size());
+    for (Map.Entry<String, FileAnnotationGraph> entry : this.sub_graphs.entrySet()) {
+      out.writeUTF(entry.getKey());
+      entry.getValue().writeTo(out, tracers);
+    }
+  }
+
+  /**
+   * Read a graph that was written with {@link #writeTo}. The maps are filled in the order they
+   * were written, so they are iterated in the same order as the written graph. Subgraphs that
+   * weren't traced are read back as lazy subgraphs with their tracers.
+   *
+   * @param in the stream to read from.
+   * @param tracers the tracers that were collected when the graph was written.
+   * @return the graph.
+   */
+  public static FileAnnotationGraph readFrom(
+      DataInputStream in, List<LazySubGraphMap.Tracer> tracers) throws IOException {
+    FileAnnotationGraph graph = new FileAnnotationGraph();
+    graph.filePath = in.readUTF();
+    graph.truncated = in.readBoolean();
+
+    graph.revisions = new LinkedList<>();
+    for (int i = in.readInt(); i > 0; i--) graph.revisions.add(in.readUTF());
+
+    graph.mappings = new HashMap<>();
+    for (int i = in.readInt(); i > 0; i--) {
+      String rev = in.readUTF();
+      Map<Integer, Integer> lines = new LinkedHashMap<>();
+      for (int j = in.readInt(); j > 0; j--) lines.put(in.readInt(), in.readInt());
+      graph.mappings.put(rev, lines);
+    }
+
+    if (!in.readBoolean()) {
+      graph.sub_graphs = new LazySubGraphMap(tracers.get(in.readInt()));
+      return graph;
+    }
+
+    graph.sub_graphs = new HashMap<>();
+    for (int i = in.readInt(); i > 0; i--) {
+      String rev = in.readUTF();
+      graph.sub_graphs.put(rev, readFrom(in, tracers));
+    }
+
+    return graph;
+  }
 }
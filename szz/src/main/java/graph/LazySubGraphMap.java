@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package graph;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+/**
+ * The subgraphs of a graph that are only traced when they are first accessed. The traced subgraphs
+ * are kept, so they are only traced once.
+ *
+ * @author Oscar Svensson
+ */
+public class LazySubGraphMap extends AbstractMap<String, FileAnnotationGraph> {
+
+  /** Traces the subgraphs. */
+  public interface Tracer {
+    public Map<String, FileAnnotationGraph> trace() throws IOException, GitAPIException;
+  }
+
+  private Tracer tracer;
+  private Map<String, FileAnnotationGraph> subGraphs = null;
+
+  public LazySubGraphMap(Tracer tracer) {
+    this.tracer = tracer;
+  }
+
+  /**
+   * Return if the subgraphs have been traced.
+   *
+   * @return true if the subgraphs have been traced.
+   */
+  public synchronized boolean isTraced() {
+    return this.subGraphs != null;
+  }
+
+  /**
+   * Return the tracer of the subgraphs.
+   *
+   * @return the tracer, or null if the subgraphs have been traced.
+   */
+  public synchronized Tracer getTracer() {
+    return this.tracer;
+  }
+
+  private synchronized Map<String, FileAnnotationGraph> getSubGraphs() {
+    if (this.subGraphs == null) {
+      try {
+        this.subGraphs = this.tracer.trace();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (GitAPIException e) {
+        throw new IllegalStateException(e);
+      }
+      this.tracer = null;
+    }
+    return this.subGraphs;
+  }
+
+  @Override
+  public Set<Map.Entry<String, FileAnnotationGraph>> entrySet() {
+    return getSubGraphs().entrySet();
+  }
+
+  @Override
+  public FileAnnotationGraph get(Object key) {
+    return getSubGraphs().get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return getSubGraphs().containsKey(key);
+  }
+
+  @Override
+  public FileAnnotationGraph put(String key, FileAnnotationGraph value) {
+    return getSubGraphs().put(key, value);
+  }
+
+  @Override
+  public int size() {
+    return getSubGraphs().size();
+  }
+}
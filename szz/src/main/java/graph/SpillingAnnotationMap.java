@@ -0,0 +1,196 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package graph;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * An AnnotationMap that only keeps the most recently added graphs in memory.
+ *
+ * <p>When more than a given number of commits have their graphs in memory, the graphs of the
+ * oldest commit are appended to a file and replaced by a list that reads them back from the mapped
+ * file when it's accessed. The read graphs are only softly referenced, so they can be collected
+ * again when the heap is short. The keys stay in the map, so it's iterated in the same order as if
+ * nothing was spilled.
+ *
+ * <p>Lazy subgraphs that weren't traced are read back as lazy subgraphs. Once any of them has been
+ * traced, the read graphs are held strongly so that the trace is never lost and repeated.
+ *
+ * @author Oscar Svensson
+ */
+public class SpillingAnnotationMap extends AnnotationMap<String, List<FileAnnotationGraph>>
+    implements Closeable {
+
+  private static final long serialVersionUID = 1L;
+
+  private int maxResident;
+  private ArrayDeque<String> resident = new ArrayDeque<>();
+
+  private File file;
+  private FileChannel channel;
+  private long length = 0;
+
+  /**
+   * The graphs of a commit that have been written to the spill file. The tracers of the subgraphs
+   * that weren't traced stay in memory, so the subgraphs can still be traced when they are read
+   * back. The tracers are released once the read graphs are pinned.
+   */
+  private class SpilledGraphs extends AbstractList<FileAnnotationGraph> {
+    private long offset;
+    private int bytes;
+    private int size;
+    private List<LazySubGraphMap.Tracer> tracers;
+    private SoftReference<List<FileAnnotationGraph>> graphs = new SoftReference<>(null);
+    private List<FileAnnotationGraph> pinned = null;
+
+    SpilledGraphs(long offset, int bytes, int size, List<LazySubGraphMap.Tracer> tracers) {
+      this.offset = offset;
+      this.bytes = bytes;
+      this.size = size;
+      this.tracers = tracers;
+    }
+
+    @Override
+    public FileAnnotationGraph get(int index) {
+      return load().get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    private synchronized List<FileAnnotationGraph> load() {
+      if (pinned != null) return pinned;
+
+      List<FileAnnotationGraph> loaded = graphs.get();
+      if (loaded != null) return loaded;
+
+      /*
+       * The read lazy subgraphs pin the graphs that they belong to when they are traced.
+       */
+      List<FileAnnotationGraph> read = new ArrayList<>(size);
+      List<LazySubGraphMap.Tracer> pinning = new ArrayList<>(tracers.size());
+      for (LazySubGraphMap.Tracer tracer : tracers) {
+        pinning.add(
+            () -> {
+              Map<String, FileAnnotationGraph> subGraphs = tracer.trace();
+              pin(read);
+              return subGraphs;
+            });
+      }
+
+      try {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+        byte[] content = new byte[bytes];
+        buffer.get(content);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        for (int i = 0; i < size; i++) {
+          read.add(in.readBoolean() ? FileAnnotationGraph.readFrom(in, pinning) : null);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      graphs = new SoftReference<>(read);
+      return read;
+    }
+
+    /** Hold the read graphs strongly, they are never read again. */
+    private synchronized void pin(List<FileAnnotationGraph> read) {
+      if (pinned != null) return;
+
+      pinned = read;
+      tracers = null;
+      graphs = new SoftReference<>(null);
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxResident the number of commits whose graphs are kept in memory.
+   * @param path the directory where the spill file is created.
+   */
+  public SpillingAnnotationMap(int maxResident, String path) throws IOException {
+    super();
+    this.maxResident = Math.max(1, maxResident);
+
+    this.file = File.createTempFile("annotations", ".spill", new File(path));
+    this.file.deleteOnExit();
+    this.channel =
+        FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  @Override
+  public List<FileAnnotationGraph> put(String key, List<FileAnnotationGraph> graphs) {
+    List<FileAnnotationGraph> previous = super.put(key, graphs);
+
+    if (graphs != null && !(graphs instanceof SpilledGraphs)) {
+      resident.add(key);
+      while (resident.size() > maxResident) spill(resident.poll());
+    }
+    return previous;
+  }
+
+  /** Append the graphs of a commit to the spill file and replace them with a spilled list. */
+  private void spill(String key) {
+    List<FileAnnotationGraph> graphs = super.get(key);
+    if (graphs == null || graphs instanceof SpilledGraphs) return;
+
+    try {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(content);
+      List<LazySubGraphMap.Tracer> tracers = new ArrayList<>();
+      for (FileAnnotationGraph graph : graphs) {
+        out.writeBoolean(graph != null);
+        if (graph != null) graph.writeTo(out, tracers);
+      }
+      out.flush();
+
+      long offset = this.length;
+      ByteBuffer buffer = ByteBuffer.wrap(content.toByteArray());
+      while (buffer.hasRemaining()) this.length += this.channel.write(buffer, this.length);
+
+      super.put(key, new SpilledGraphs(offset, content.size(), graphs.size(), tracers));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Close and remove the spill file. */
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+    this.file.delete();
+  }
+}
@@ -25,6 +25,7 @@
 package heuristics;
 
 import data.Issues;
+import java.util.*;
 import org.eclipse.jgit.lib.Repository;
 import util.Configuration;
 
@@ -40,7 +41,19 @@ public class BugFinderFactory {
 
   public static BugIntroducerFinder getFinder(Repository repo, Issues issues) {
     Configuration conf = Configuration.getInstance();
-    switch (conf.getBugFinder()) {
+    if (conf.getBugFinders().size() < 2) return getFinder(repo, issues, conf.getBugFinder());
+
+    Map<String, StreamingBugIntroducerFinder> finders = new LinkedHashMap<>();
+    for (int bugFinder : conf.getBugFinders()) {
+      finders.put(getName(bugFinder), getFinder(repo, issues, bugFinder));
+    }
+    return new CompositeBugIntroducerFinder(finders);
+  }
+
+  private static StreamingBugIntroducerFinder getFinder(
+      Repository repo, Issues issues, int bugFinder) {
+    Configuration conf = Configuration.getInstance();
+    switch (bugFinder) {
       case SIMPLE:
         return new SimpleBugIntroducerFinder(
             issues, repo, conf.getDepth(), conf.getPartialFixPattern());
@@ -50,4 +63,14 @@ public class BugFinderFactory {
 
     return null;
   }
+
+  /**
+   * Return the name of a bugfinder, as given on the commandline.
+   *
+   * @param bugFinder the bugfinder.
+   * @return the name of the bugfinder.
+   */
+  public static String getName(int bugFinder) {
+    return bugFinder == DISTANCE ? "distance" : "simple";
+  }
 }
@@ -0,0 +1,96 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package heuristics;
+
+import graph.FileAnnotationGraph;
+import java.io.*;
+import java.util.*;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+/**
+ * A bug introduce finder that runs several finders on the same graphs. The graphs are only traced
+ * once, and the finders share the traced subgraphs and the caches of the run.
+ *
+ * <p>The pairs of the first finder are returned, while the pairs of every finder are kept by the
+ * name of the finder.
+ *
+ * @author Oscar Svensson
+ */
+public class CompositeBugIntroducerFinder implements StreamingBugIntroducerFinder {
+
+  private Map<String, StreamingBugIntroducerFinder> finders;
+  private Map<String, List<String[]>> results = new LinkedHashMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param finders the finders by their names, the first is the primary finder.
+   */
+  public CompositeBugIntroducerFinder(Map<String, StreamingBugIntroducerFinder> finders) {
+    this.finders = finders;
+    for (String name : finders.keySet()) results.put(name, new LinkedList<>());
+  }
+
+  public List<String[]> accept(String fix, List<FileAnnotationGraph> files)
+      throws IOException, GitAPIException {
+    List<String[]> primary = null;
+    for (Map.Entry<String, StreamingBugIntroducerFinder> finder : finders.entrySet()) {
+      List<String[]> pairs = finder.getValue().accept(fix, files);
+      results.get(finder.getKey()).addAll(pairs);
+
+      if (primary == null) primary = pairs;
+    }
+    return primary;
+  }
+
+  public List<String[]> finish() throws IOException, GitAPIException {
+    List<String[]> primary = null;
+    for (Map.Entry<String, StreamingBugIntroducerFinder> finder : finders.entrySet()) {
+      List<String[]> pairs = finder.getValue().finish();
+      results.get(finder.getKey()).addAll(pairs);
+
+      if (primary == null) primary = pairs;
+    }
+    return primary;
+  }
+
+  /**
+   * Return the finders by their names.
+   *
+   * @return the finders, the first is the primary finder.
+   */
+  public Map<String, StreamingBugIntroducerFinder> getFinders() {
+    return this.finders;
+  }
+
+  /**
+   * Return the pairs that each finder has found so far.
+   *
+   * @return the pairs by the name of the finder.
+   */
+  public Map<String, List<String[]>> getResults() {
+    return this.results;
+  }
+}
@@ -26,12 +26,14 @@ package heuristics;
 
 import data.Issues;
 import diff.DiffingLines.DiffLines;
-import graph.AnnotationMap;
+import diff.LineSimilarity;
+import diff.LineSimilarity.Profile;
 import graph.FileAnnotationGraph;
-import info.debatty.java.stringsimilarity.Jaccard;
+import index.CommitIndex;
 import java.io.*;
 import java.util.*;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import parser.Commit;
@@ -42,22 +44,28 @@ import util.CommitUtil;
  *
  * @author Oscar Svensson
  */
-public class DistanceIntroducerFinder implements BugIntroducerFinder {
+public class DistanceIntroducerFinder implements StreamingBugIntroducerFinder {
 
   private Repository repo;
   private Issues issues;
+  private CommitIndex index;
 
   private CommitUtil util;
+  private LineSimilarity similarity;
 
   /** An abstraction of a distance between two revisions. */
   private class RevisionDistance {
     public double distance;
     public List<String[]> updatedDiffLines;
+    public List<Profile> updatedProfiles;
   }
 
   public DistanceIntroducerFinder(Repository repo, int customContext) {
+    this.repo = repo;
+    this.index = CommitIndex.peek(repo);
 
     this.util = new CommitUtil(repo, customContext);
+    this.similarity = new LineSimilarity();
   }
 
   private int parseInt(String value) {
@@ -71,150 +79,204 @@ public class DistanceIntroducerFinder implements BugIntroducerFinder {
   private RevCommit stringToRev(String rev) {
     RevCommit commit = null;
     try {
-      commit = this.repo.parseCommit(this.repo.resolve(rev));
+      int ordinal = this.index != null ? this.index.resolve(rev) : -1;
+      if (ordinal >= 0) commit = this.repo.parseCommit(this.index.getId(ordinal));
+      else commit = this.repo.parseCommit(this.repo.resolve(rev));
     } catch (Exception e) {
       return null;
     }
     return commit;
   }
 
+  /** Find the tree of a revision without parsing the commit if it is indexed. */
+  private ObjectId stringToTree(String rev) {
+    int ordinal = this.index != null ? this.index.resolve(rev) : -1;
+    if (ordinal >= 0) return this.index.getTree(ordinal);
+
+    RevCommit commit = stringToRev(rev);
+    return commit != null ? commit.getTree() : null;
+  }
+
   /**
    * Compute the Jaccard distance between two revisions.
    *
    * @param current a list containing the deletions made by a bugfixing commit. On the format
    *     [{lineIndex, Line},...]
+   * @param currentProfiles the profiles of the lines in current, in the same order.
    * @param other the line from the revision to compare with.
+   * @param otherProfiles the cached profiles of the lines in other.
    * @param lineMapping the linemapping between the two revisions.
    * @return the distance between the two revisions and a list with the updated indexes.
    */
   private RevisionDistance compareTwoSections(
-      List<String[]> current, List<String> other, Map<Integer, Integer> lineMapping) {
+      List<String[]> current,
+      List<Profile> currentProfiles,
+      List<String> other,
+      Profile[] otherProfiles,
+      Map<Integer, Integer> lineMapping) {
 
     RevisionDistance dist = new RevisionDistance();
     dist.updatedDiffLines = new LinkedList<>();
+    dist.updatedProfiles = new LinkedList<>();
     Iterator<String[]> currentIterator = current.iterator();
-    double distance = 0.0;
+    Iterator<Profile> profileIterator = currentProfiles.iterator();
 
-    Jaccard j2 = new Jaccard(2);
+    List<Profile> otherBatch = new ArrayList<>();
 
     while (currentIterator.hasNext()) {
       String[] entry = currentIterator.next();
+      Profile profile = profileIterator.next();
       int lineId = parseInt(entry[0]);
 
-      if (lineId >= 0) {
-        int otherId = -1;
-        try {
-          otherId = lineMapping.get(lineId);
+      if (lineId >= 0 && lineMapping != null) {
+        Integer otherId = lineMapping.get(lineId);
 
-          if (entry[1] != null) {
-            distance += j2.distance(entry[1], other.get(otherId));
+        if (otherId != null && otherId >= 0 && otherId < other.size() && entry[1] != null) {
+          otherBatch.add(LineSimilarity.profile(otherProfiles, other, otherId));
 
-            dist.updatedDiffLines.add(new String[] {Integer.toString(otherId), entry[1]});
-          }
-        } catch (Exception e) {
+          dist.updatedDiffLines.add(new String[] {Integer.toString(otherId), entry[1]});
+          dist.updatedProfiles.add(profile);
         }
       }
     }
 
+    double distance = 0.0;
+    for (double d : LineSimilarity.distances(dist.updatedProfiles, otherBatch)) {
+      distance += d;
+    }
+
     dist.distance = current.size() > 0 ? (distance / current.size()) : distance;
 
     return dist;
   }
 
   /**
-   * Provided with a map with changes, the method finds potential bugintroducing commits by tracing
-   * backwards all inserted and deleted lines.
+   * Find the revision that is the most likely to have introduced the lines that the fix deleted
+   * from a file.
    *
-   * <p>All lines that have been
+   * @param source the diffing lines of the fix.
+   * @param graph the graph of the file.
+   * @return the revision, or null if no revision before the fix changed the file.
    */
-  public List<String[]> findBugIntroducingCommits(
-      AnnotationMap<String, List<FileAnnotationGraph>> graphs) throws IOException, GitAPIException {
+  private String findIntroducer(Commit source, FileAnnotationGraph graph)
+      throws IOException, GitAPIException {
+    /*
+     * Only check the lines that was removed.
+     */
+    DiffLines diffLines = source.diffWithParent.get(graph.filePath);
+    if (diffLines == null && source.summarized) {
+      diffLines = this.util.diffFile(source, graph.filePath);
+    }
+    if (diffLines == null) return null;
+    List<String[]> deletions = diffLines.deletions;
+
+    /*
+     * The deleted lines keep their text through all revisions, so they are only profiled once.
+     */
+    List<Profile> deletionProfiles = new LinkedList<>();
+    for (String[] deletion : deletions) {
+      deletionProfiles.add(deletion[1] != null ? LineSimilarity.profile(deletion[1]) : null);
+    }
 
-    List<String[]> bugIntroducers = new LinkedList<>();
-    for (Map.Entry<String, List<FileAnnotationGraph>> entry : graphs.entrySet()) {
+    /*
+     * Throw away the first revision aka the source commit.
+     */
+    Iterator<String> revisions = graph.revisions.iterator();
+    revisions.next();
+    if (!revisions.hasNext()) return null;
+
+    /*
+     * Extract the revision after the source. This revision should include the deleted lines.
+     */
+    String prevRevision = revisions.next();
+
+    /*
+     * Now check when the deleted lines where added aka when the lines changes between the
+     * revisions.
+     */
+    double smallest = 1.0;
+    String smallestDistCommit = prevRevision;
+
+    while (revisions.hasNext()) {
+      String revision = revisions.next();
+      ObjectId tree = null;
+
+      if ((tree = stringToTree(revision)) == null) continue;
 
-      List<FileAnnotationGraph> files = new LinkedList<>();
-      RevCommit sCommit = null;
+      ObjectId blob = this.util.getFileBlobId(tree, graph.filePath);
+      List<String> nextLines =
+          blob != null ? this.util.getFileLines(blob) : new LinkedList<String>();
+      Profile[] nextProfiles =
+          blob != null ? this.similarity.getBlobProfiles(blob, nextLines) : new Profile[0];
 
-      if ((sCommit = stringToRev(entry.getKey())) == null) continue;
-      files = entry.getValue();
-      Commit source = this.util.getCommitDiffingLines(sCommit);
+      Map<Integer, Integer> lineMapping = graph.getLineMapping(revision);
 
       /*
-       * Grep the first commit and check what have changed. Grab the insertions and the
-       * deletions and trace back to when they was first introduced.
+       * Pick the corresponding lines from the previous revisions.
        *
-       * The commit that introduced them the first time will be considered as the bug
-       * introducing commit.
+       * TODO: Make a better measurement and also check subgraphs, this measurement isn't
+       * really valid.
        */
-      for (FileAnnotationGraph graph : files) {
-        String[] fixBugPair = new String[2];
-        fixBugPair[0] = entry.getKey();
-
-        /*
-         * Only check the lines that was removed.
-         */
-        DiffLines diffLines = source.diffWithParent.get(graph.filePath);
-        List<String[]> deletions = diffLines.deletions;
-
-        /*
-         * Throw away the first revision aka the source commit.
-         */
-        Iterator<String> revisions = graph.revisions.iterator();
-        revisions.next();
-        if (!revisions.hasNext()) continue;
-
-        /*
-         * Extract the revision after the source. This revision should include the deleted lines.
-         */
-        String prevRevision = revisions.next();
-
-        /*
-         * Now check when the deleted lines where added aka when the lines changes between the
-         * revisions.
-         */
-        double smallest = 1.0;
-        String smallestDistCommit = prevRevision;
-
-        while (revisions.hasNext()) {
-          String revision = revisions.next();
-          RevCommit next = null;
-
-          if ((next = stringToRev(revision)) == null) continue;
-
-          List<String> nextLines = this.util.getFileLines(next.getTree(), graph.filePath);
-
-          Map<Integer, Integer> lineMapping = graph.getLineMapping(revision);
-
-          /*
-           * Pick the corresponding lines from the previous revisions.
-           *
-           * TODO: Make a better measurement and also check subgraphs, this measurement isn't
-           * really valid.
-           */
-          RevisionDistance distance = compareTwoSections(deletions, nextLines, lineMapping);
-
-          /*
-           * The commit with a too low jaccard distance will be considered as the one the introduced
-           * the deleted lines.
-           */
-          if (distance.distance < smallest) {
-            smallest = distance.distance;
-            smallestDistCommit = revision;
-          }
-
-          deletions = distance.updatedDiffLines;
-        }
-        fixBugPair[1] = smallestDistCommit;
-        bugIntroducers.add(fixBugPair);
-      }
+      RevisionDistance distance =
+          compareTwoSections(deletions, deletionProfiles, nextLines, nextProfiles, lineMapping);
 
       /*
-       * TODO: Misses if semantics changes. Only checks as long as the line hasn't changed at
-       * all. Check if the file has been modified between revisions.
+       * The commit with a too low jaccard distance will be considered as the one the introduced
+       * the deleted lines.
        */
+      if (distance.distance < smallest) {
+        smallest = distance.distance;
+        smallestDistCommit = revision;
+      }
+
+      deletions = distance.updatedDiffLines;
+      deletionProfiles = distance.updatedProfiles;
     }
+    return smallestDistCommit;
+  }
+
+  /**
+   * Provided with the graphs of a fix, the method finds potential bugintroducing commits by tracing
+   * backwards all inserted and deleted lines.
+   *
+   * @param fix the fix commit.
+   * @param files the graphs of the files that the fix changed.
+   */
+  public List<String[]> accept(String fix, List<FileAnnotationGraph> files)
+      throws IOException, GitAPIException {
+
+    List<String[]> bugIntroducers = new LinkedList<>();
+    RevCommit sCommit = null;
+
+    if ((sCommit = stringToRev(fix)) == null) return bugIntroducers;
+    Commit source = this.util.getCommitDiffingLines(sCommit);
+
+    /*
+     * Grep the first commit and check what have changed. Grab the insertions and the
+     * deletions and trace back to when they was first introduced.
+     *
+     * The commit that introduced them the first time will be considered as the bug
+     * introducing commit.
+     */
+    FileAnnotationGraph.traverse(
+        files,
+        1,
+        graph -> {
+          String introducer = findIntroducer(source, graph);
+          if (introducer != null) bugIntroducers.add(new String[] {fix, introducer});
+          return true;
+        });
+
+    /*
+     * TODO: Misses if semantics changes. Only checks as long as the line hasn't changed at
+     * all. Check if the file has been modified between revisions.
+     */
 
     return bugIntroducers;
   }
+
+  /** All pairs are found when the fixes are accepted. */
+  public List<String[]> finish() {
+    return new LinkedList<>();
+  }
 }
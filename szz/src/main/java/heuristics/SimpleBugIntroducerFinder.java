@@ -25,204 +25,352 @@
 package heuristics;
 
 import data.Issues;
-import graph.AnnotationMap;
 import graph.FileAnnotationGraph;
+import index.CommitClassifier;
+import index.CommitIndex;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import util.RevisionCombinationGenerator;
+import util.RevisionPairGenerator;
 
 /**
  * A simple bug introduce finder as described by Zeller et al.
  *
  * @author Oscar Svensson
  */
-public class SimpleBugIntroducerFinder implements BugIntroducerFinder {
+public class SimpleBugIntroducerFinder implements StreamingBugIntroducerFinder {
 
   private Issues issues;
   private Repository repo;
+  private CommitIndex index;
   private int depth;
-  private Pattern partialFixPattern;
+  private CommitClassifier partialFixes;
+
+  private Map<String, List<String>> bucketIntroducers = new TreeMap<String, List<String>>();
+  private Map<String, List<String>> bucketIssues = new TreeMap<String, List<String>>();
+  private Map<String, List<String[]>> issuePairs = new LinkedHashMap<>();
+  private Map<String, Map<String, Date>> creationDates = new ConcurrentHashMap<>();
 
   public SimpleBugIntroducerFinder(
       Issues issues, Repository repo, int depth, String partialFixPattern) {
     this.issues = issues;
     this.repo = repo;
+    this.index = CommitIndex.peek(repo);
     this.depth = depth;
 
-    this.partialFixPattern = Pattern.compile(partialFixPattern);
+    this.partialFixes = CommitClassifier.getInstance(repo, partialFixPattern);
   }
 
   /**
-   * Check if a commit is within a fix timeframe.
+   * Find the issues of a fix whose timeframe a commit is within. Each issue is checked against its
+   * own dates.
    *
    * @param fix the commit containing the fix.
    * @param commit the potential bug introducing commit.
-   * @return if the commit is within the timeframe.
+   * @return the issues, in the order of the issue file.
    */
-  private boolean isWithinTimeframe(String fix, String commit) throws IOException, GitAPIException {
-    Map<String, String> dates = this.issues.get(fix);
+  private List<String> getIssuesWithinTimeframe(String fix, String commit) throws IOException {
+    Date revisionDate = getCommitDate(commit);
 
-    RevCommit rCommit = this.repo.parseCommit(this.repo.resolve(commit));
+    List<String> within = new ArrayList<>();
+    for (Map.Entry<String, Date> issue : getCreationDates(fix).entrySet()) {
+      if (issue.getValue() != null && revisionDate.before(issue.getValue())) {
+        within.add(issue.getKey());
+      }
+    }
+    return within;
+  }
 
-    Date revisionDate = rCommit.getCommitterIdent().getWhen();
+  /**
+   * Get the creation dates of the issues of a fix. They are parsed once per fix and shared by all
+   * pairs of the fix.
+   *
+   * @param fix the commit containing the fix.
+   * @return the creation date of each issue, or null if it couldn't be parsed.
+   */
+  private Map<String, Date> getCreationDates(String fix) {
+    return this.creationDates.computeIfAbsent(
+        fix,
+        key -> {
+          Map<String, Date> dates = new LinkedHashMap<>();
+          for (Map.Entry<String, Map<String, String>> issue :
+              this.issues.getIssues(key).entrySet()) {
+            dates.put(issue.getKey(), parseCreationDate(issue.getValue()));
+          }
+          return dates;
+        });
+  }
 
+  /** Parse the creation date of an issue. */
+  private Date parseCreationDate(Map<String, String> dates) {
     String commitDateString = dates.get("creationdate");
     SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
 
-    Date commitDate = null;
     try {
-      commitDate = format.parse(commitDateString);
+      return format.parse(commitDateString);
     } catch (Exception e) {
       e.printStackTrace();
-      return false;
+      return null;
     }
+  }
 
-    return revisionDate.before(commitDate);
+  /** Add a pair to the results of each of the given issues. */
+  private void addIssuePair(Collection<String> issues, String[] pair) {
+    for (String issue : issues) {
+      if (!issuePairs.containsKey(issue)) issuePairs.put(issue, new LinkedList<>());
+      issuePairs.get(issue).add(pair);
+    }
   }
 
-  /** Check if a commit is a partial fix. */
-  private boolean isPartialFix(String commit) throws IOException, GitAPIException {
+  /**
+   * Return the pairs of each issue. A pair belongs to the issues of its fix whose own timeframe
+   * it's within, or to all of them if the introducer is a partial fix.
+   *
+   * @return the pairs by the issue.
+   */
+  public Map<String, List<String[]>> getIssuePairs() {
+    return this.issuePairs;
+  }
+
+  /** Get the commit date of a commit, from the commit index if the commit is indexed. */
+  private Date getCommitDate(String commit) throws IOException {
+    int ordinal = this.index != null ? this.index.resolve(commit) : -1;
+    if (ordinal >= 0) return new Date(this.index.getCommitTime(ordinal) * 1000L);
+
     RevCommit rCommit = this.repo.parseCommit(this.repo.resolve(commit));
-    String message = rCommit.getFullMessage();
+    return rCommit.getCommitterIdent().getWhen();
+  }
+
+  /** Check if a commit is a partial fix. */
+  private boolean isPartialFix(String commit) throws IOException {
+    return this.partialFixes.matches(commit);
+  }
+
+  /** The outcome of evaluating all pairs in a single file bucket. */
+  private static class BucketResult {
+    public String filePath;
+    public List<String[]> bugIntroducers = new ArrayList<>();
+    public List<List<String>> bugIssues = new ArrayList<>();
+    public List<String> partialIntroducers = new ArrayList<>();
+    public List<String> partialIssues = new ArrayList<>();
+
+    public BucketResult(String filePath) {
+      this.filePath = filePath;
+    }
+  }
+
+  /** An evaluation of the pairs in a single file bucket. */
+  private interface BucketEvaluator {
+    public BucketResult evaluate(String filePath, List<String> introducers, List<String> issues)
+        throws IOException, GitAPIException;
+  }
+
+  /**
+   * Evaluate all buckets in parallel. The buckets are independent of each other since they are
+   * keyed by file path.
+   *
+   * @param introducers the potential introducers for each file path.
+   * @param issues the issues for each file path.
+   * @param evaluator the check that should be made for each bucket.
+   * @return the results for each bucket, in the iteration order of the introducers.
+   */
+  private List<BucketResult> evaluateBuckets(
+      Map<String, List<String>> introducers,
+      Map<String, List<String>> issues,
+      BucketEvaluator evaluator)
+      throws IOException, GitAPIException {
+    try {
+      return new ArrayList<>(introducers.keySet())
+          .parallelStream()
+          .map(
+              filePath -> {
+                try {
+                  return evaluator.evaluate(
+                      filePath, introducers.get(filePath), issues.get(filePath));
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                } catch (GitAPIException e) {
+                  throw new IllegalStateException(e);
+                }
+              })
+          .collect(Collectors.toList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (IllegalStateException e) {
+      if (e.getCause() instanceof GitAPIException) throw (GitAPIException) e.getCause();
+      throw e;
+    }
+  }
 
-    Matcher fixMatch = this.partialFixPattern.matcher(commit);
+  /**
+   * Check if the potential introducers in a bucket are within the timeframe of any other fix that
+   * have changed the same file. Those who aren't are partial fix suspects.
+   */
+  private BucketResult evaluateTimeframeBucket(
+      String filePath, List<String> introducers, List<String> issues)
+      throws IOException, GitAPIException {
+    BucketResult result = new BucketResult(filePath);
 
-    return fixMatch.find();
+    RevisionPairGenerator gen = new RevisionPairGenerator(introducers, issues);
+
+    /*
+     * The same pair is generated once for each combination of its positions, so the issues within
+     * the timeframe are only found once for each pair.
+     */
+    Map<List<String>, List<String>> withinByPair = new HashMap<>();
+    for (String[] pair : gen) {
+      List<String> key = Arrays.asList(pair);
+      List<String> within = withinByPair.get(key);
+      if (within == null) {
+        within = getIssuesWithinTimeframe(pair[1], pair[0]);
+        withinByPair.put(key, within);
+      }
+
+      if (!within.isEmpty()) {
+        result.bugIntroducers.add(pair);
+        result.bugIssues.add(within);
+      } else {
+        result.partialIntroducers.add(pair[0]);
+        result.partialIssues.add(pair[1]);
+      }
+    }
+    return result;
   }
 
-  private Collection<FileAnnotationGraph> getSubGraphs(
-      Collection<FileAnnotationGraph> root, int depth) {
-    Collection<FileAnnotationGraph> sub = new LinkedList<>();
-    if (depth == 1) return sub;
+  /** Check if any of the partial fix suspects in a bucket is a partial fix. */
+  private BucketResult evaluatePartialFixBucket(
+      String filePath, List<String> introducers, List<String> issues)
+      throws IOException, GitAPIException {
+    BucketResult result = new BucketResult(filePath);
+
+    RevisionPairGenerator gen = new RevisionPairGenerator(introducers, issues);
 
-    for (FileAnnotationGraph subGraph : root) {
-      if (depth > 2) {
-        sub.addAll(getSubGraphs(subGraph.sub_graphs.values(), depth - 1));
-        sub.addAll(subGraph.sub_graphs.values());
+    for (String[] pair : gen) {
+      if (isPartialFix(pair[0])) {
+        result.bugIntroducers.add(pair);
       }
-      sub.add(subGraph);
     }
-    return sub;
+    return result;
   }
 
   /**
    * Simple heuristics of the SZZ algorithm. Pick all commits that have made changes to a line but
    * take into consideration if they have been made before or after the bug was reported.
    *
-   * @param graphs a graph containing all reported bugfixes.
+   * <p>The commits that are within the timeframe of the fix are returned directly. The others are
+   * put in buckets by file and checked against the other fixes when all fixes have been seen.
+   *
+   * @param fix the fix commit.
+   * @param files the graphs of the files that the fix changed.
    */
-  public List<String[]> findBugIntroducingCommits(
-      AnnotationMap<String, List<FileAnnotationGraph>> graphs) throws IOException, GitAPIException {
+  public List<String[]> accept(String fix, List<FileAnnotationGraph> files)
+      throws IOException, GitAPIException {
 
     List<String[]> bugIntroducers = new LinkedList<>();
-    List<String[]> potentialBugIntroducers = new LinkedList<>();
-
-    Map<String, List<String>> bucketIntroducers = new HashMap<String, List<String>>();
-    Map<String, List<String>> bucketIssues = new HashMap<String, List<String>>();
-
-    for (Map.Entry<String, List<FileAnnotationGraph>> entry : graphs.entrySet()) {
-
-      List<FileAnnotationGraph> files = new LinkedList<>();
-      String sCommitString = entry.getKey();
-      files = entry.getValue();
-
-      /*
-       * Grab all commits that are seen as fixes or that have changed anything.
-       * Only checks the first layer of commits.
-       */
-      Collection<FileAnnotationGraph> subGraphs = getSubGraphs(files, this.depth);
-      subGraphs.addAll(files);
-
-      for (FileAnnotationGraph fileGraph : subGraphs) {
-        Iterator<String> revisions = fileGraph.revisions.iterator();
-        revisions.next();
-        if (!revisions.hasNext()) continue;
-
-        while (revisions.hasNext()) {
-          String rev = revisions.next();
-          String[] pair = new String[2];
-          pair[0] = sCommitString;
-          pair[1] = rev;
-
-          /*
-           * Check if the timestamp is within the timeframe or not.
-           */
-          if (isWithinTimeframe(sCommitString, rev)) {
-            bugIntroducers.add(pair);
-          } else {
-            if (!bucketIntroducers.containsKey(fileGraph.filePath)) {
-              bucketIntroducers.put(fileGraph.filePath, new ArrayList<>());
-            }
-            bucketIntroducers.get(fileGraph.filePath).add(rev);
+    List<String> candidates = new ArrayList<>();
 
-            if (!bucketIssues.containsKey(fileGraph.filePath)) {
-              bucketIssues.put(fileGraph.filePath, new ArrayList<>());
+    /*
+     * Grab all commits that are seen as fixes or that have changed anything. The graphs are
+     * checked down to the level above the depth, and each graph is only checked once.
+     */
+    FileAnnotationGraph.traverse(
+        files,
+        Math.max(1, this.depth - 1),
+        fileGraph -> {
+          Iterator<String> revisions = fileGraph.revisions.iterator();
+          revisions.next();
+
+          while (revisions.hasNext()) {
+            String rev = revisions.next();
+            String[] pair = new String[2];
+            pair[0] = fix;
+            pair[1] = rev;
+
+            /*
+             * Check if the timestamp is within the timeframe or not.
+             */
+            List<String> within = getIssuesWithinTimeframe(fix, rev);
+            if (!within.isEmpty()) {
+              bugIntroducers.add(pair);
+              addIssuePair(within, pair);
+            } else {
+              if (!bucketIntroducers.containsKey(fileGraph.filePath)) {
+                bucketIntroducers.put(fileGraph.filePath, new ArrayList<>());
+              }
+              bucketIntroducers.get(fileGraph.filePath).add(rev);
+              candidates.add(rev);
+
+              if (!bucketIssues.containsKey(fileGraph.filePath)) {
+                bucketIssues.put(fileGraph.filePath, new ArrayList<>());
+              }
+              bucketIssues.get(fileGraph.filePath).add(fix);
             }
-            bucketIssues.get(fileGraph.filePath).add(sCommitString);
           }
-        }
-      }
-    }
+          return true;
+        });
 
-    List<String[]> partial_fix_suspects = new LinkedList<>();
-    Map<String, List<String>> partialIntroducers = new HashMap<String, List<String>>();
-    Map<String, List<String>> partialIssues = new HashMap<String, List<String>>();
+    /*
+     * The commits outside the timeframe may be checked for partial fixes when all fixes have been
+     * seen, so their messages are classified now and only looked up then.
+     */
+    this.partialFixes.classify(candidates);
+
+    return bugIntroducers;
+  }
+
+  /**
+   * Check the commits that were outside the timeframe of their fix against the other fixes that
+   * changed the same file, and check them for partial fixes.
+   */
+  public List<String[]> finish() throws IOException, GitAPIException {
+
+    List<String[]> bugIntroducers = new LinkedList<>();
+
+    Map<String, List<String>> partialIntroducers = new TreeMap<String, List<String>>();
+    Map<String, List<String>> partialIssues = new TreeMap<String, List<String>>();
     /*
      * Now check if any of the potential bugintroducing commits are bugintroducers for any other fix commit, aka weak suspects.
      * This check should be made smarter...
+     *
+     * The buckets are independent of each other so they are evaluated in parallel. The results
+     * are collected in the order of the file paths to keep the output deterministic.
      */
-    for (Map.Entry<String, List<String>> entry : bucketIntroducers.entrySet()) {
-      List<String> introducers = entry.getValue();
-      List<String> issues = bucketIssues.get(entry.getKey());
-
-      RevisionCombinationGenerator gen = new RevisionCombinationGenerator(introducers, issues, 2);
-      gen = gen.iterator();
-
-      while(gen.hasNext()) {
-        String[] pair = gen.getNextIndic();
-        if (pair[0] == "" && pair[1] == "")
-          continue;
-        
-        if (isWithinTimeframe(pair[1], pair[0])) {
-          bugIntroducers.add(pair);
-        } else {
-
-          if (!partialIntroducers.containsKey(entry.getKey())) {
-            partialIntroducers.put(entry.getKey(), new ArrayList<>());
-          }
-          partialIntroducers.get(entry.getKey()).add(pair[0]);
-
-          if (!partialIssues.containsKey(entry.getKey())) {
-            partialIssues.put(entry.getKey(), new ArrayList<>());
-          }
-          partialIssues.get(entry.getKey()).add(pair[1]);
-        }
+    List<BucketResult> timeframeResults =
+        evaluateBuckets(bucketIntroducers, bucketIssues, this::evaluateTimeframeBucket);
+    bucketIntroducers = new TreeMap<String, List<String>>();
+    bucketIssues = new TreeMap<String, List<String>>();
+    for (BucketResult result : timeframeResults) {
+      bugIntroducers.addAll(result.bugIntroducers);
+      for (int i = 0; i < result.bugIntroducers.size(); i++) {
+        addIssuePair(result.bugIssues.get(i), result.bugIntroducers.get(i));
       }
+
+      if (result.partialIntroducers.isEmpty()) continue;
+      partialIntroducers.put(result.filePath, result.partialIntroducers);
+      partialIssues.put(result.filePath, result.partialIssues);
     }
 
     /*
      * Now check for partial fixes. If a commit is flagged as a fix, it is a candidate to be a partial fix.
+     *
+     * All candidates are classified in one batch before the buckets are evaluated, so the parallel
+     * lookups never have to classify a commit themselves.
      */
-    for (Map.Entry<String, List<String>> suspects : partialIntroducers.entrySet()) {
-      List<String> introducers = suspects.getValue();
-      List<String> issues = partialIssues.get(suspects.getKey());
-
-      RevisionCombinationGenerator gen = new RevisionCombinationGenerator(introducers, issues, 2);
-      gen = gen.iterator();
-
-      while(gen.hasNext()) {
-        String[] pair = gen.getNextIndic();
-        if (pair[0] == "" && pair[1] == "")
-          continue;
-        if (isPartialFix(pair[0])) {
-          bugIntroducers.add(pair);
-        }
+    List<String> candidates = new ArrayList<>();
+    for (List<String> introducers : partialIntroducers.values()) candidates.addAll(introducers);
+    this.partialFixes.classify(candidates);
+
+    List<BucketResult> partialResults =
+        evaluateBuckets(partialIntroducers, partialIssues, this::evaluatePartialFixBucket);
+    for (BucketResult result : partialResults) {
+      bugIntroducers.addAll(result.bugIntroducers);
+      for (String[] pair : result.bugIntroducers) {
+        addIssuePair(this.issues.getIssues(pair[1]).keySet(), pair);
       }
     }
 
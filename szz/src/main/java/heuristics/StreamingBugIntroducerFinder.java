@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package heuristics;
+
+import graph.AnnotationMap;
+import graph.FileAnnotationGraph;
+import java.io.*;
+import java.util.*;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+/**
+ * A bug introduce finder that is given the graphs of one fix at a time. The pairs that can be
+ * found from a single fix are returned right away, and the steps that need all fixes are made when
+ * the finder is finished.
+ *
+ * @author Oscar Svensson
+ */
+public interface StreamingBugIntroducerFinder extends BugIntroducerFinder {
+
+  /**
+   * Find the bug introducers of a fix.
+   *
+   * @param fix the fix commit.
+   * @param files the graphs of the files that the fix changed.
+   * @return the pairs that were found from this fix alone.
+   */
+  public List<String[]> accept(String fix, List<FileAnnotationGraph> files)
+      throws IOException, GitAPIException;
+
+  /**
+   * Make the steps that need all fixes, once all fixes have been accepted.
+   *
+   * @return the remaining pairs.
+   */
+  public List<String[]> finish() throws IOException, GitAPIException;
+
+  public default List<String[]> findBugIntroducingCommits(
+      AnnotationMap<String, List<FileAnnotationGraph>> graphs) throws IOException, GitAPIException {
+    List<String[]> bugIntroducers = new LinkedList<>();
+    for (Map.Entry<String, List<FileAnnotationGraph>> entry : graphs.entrySet()) {
+      bugIntroducers.addAll(accept(entry.getKey(), entry.getValue()));
+    }
+    bugIntroducers.addAll(finish());
+    return bugIntroducers;
+  }
+}
@@ -0,0 +1,352 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bloom filters of the paths that each commit changed compared with its first parent, in the same
+ * spirit as the changed-path filters of git.
+ *
+ * <p>The filters are stored in a side file next to the {@link CommitIndex} and are addressed by
+ * the ordinals of that index. Each filter holds the changed paths and all their leading
+ * directories and uses 7 hash functions and 10 bits per entry. A commit without changes has an
+ * empty filter and a commit with too many changes has a filter where all bits are set.
+ *
+ * <p>A negative answer is certain, so history walks can skip a commit without looking at its
+ * trees when its filter doesn't contain the path.
+ *
+ * <p>The filters are built on demand by the provenance index and the cost schedule. A blame only
+ * starts from them when they have already been built during the run.
+ *
+ * @author Oscar Svensson
+ */
+public class ChangedPathIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(ChangedPathIndex.class);
+
+  private static final int MAGIC = 0x535a4350; // SZCP
+  private static final int VERSION = 1;
+  private static final String INDEX_PATH = "changed-paths";
+
+  private static final int HEADER_SIZE = 4 * 4 + 20;
+  private static final int NUM_HASHES = 7;
+  private static final int BITS_PER_ENTRY = 10;
+  private static final int MAX_CHANGED_PATHS = 512;
+
+  private static final int SEED1 = 0x293ae76f;
+  private static final int SEED2 = 0x7e646e2c;
+
+  private static Map<File, ChangedPathIndex> instances = new HashMap<>();
+
+  private CommitIndex commits;
+  private ByteBuffer buffer;
+  private int size;
+  private int dataOffset;
+
+  private ChangedPathIndex(CommitIndex commits, ByteBuffer buffer) throws IOException {
+    this.commits = commits;
+    this.buffer = buffer;
+
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a changed path index!");
+    }
+    this.size = buffer.getInt(8);
+    this.dataOffset = HEADER_SIZE + (size + 1) * 4;
+  }
+
+  /**
+   * Get the changed path filters of a repository. The filters are built or updated the first time
+   * they are requested during a run and are then shared by all threads.
+   *
+   * @param repo the repository.
+   * @return the filters or null if they couldn't be built.
+   */
+  public static synchronized ChangedPathIndex getInstance(Repository repo) {
+    File directory = repo.getDirectory().getAbsoluteFile();
+    if (instances.containsKey(directory)) return instances.get(directory);
+
+    ChangedPathIndex index = null;
+    CommitIndex commits = CommitIndex.getInstance(repo);
+    if (commits != null) {
+      try {
+        index = open(repo, commits, new File(CommitIndex.getDirectory(repo), INDEX_PATH));
+      } catch (IOException e) {
+        logger.warn("Couldn't build the changed path filters: " + e.getMessage());
+      }
+    }
+    instances.put(directory, index);
+    return index;
+  }
+
+  /**
+   * Get the changed path filters of a repository if they have already been opened during the run.
+   * The filters are never built by this method.
+   *
+   * @param repo the repository.
+   * @return the filters or null if they haven't been opened.
+   */
+  public static synchronized ChangedPathIndex peek(Repository repo) {
+    return instances.get(repo.getDirectory().getAbsoluteFile());
+  }
+
+  /**
+   * Open a filter file, adding filters for the commits of the commit index that it lacks.
+   *
+   * @param repo the repository.
+   * @param commits the commit index that the filters are addressed by.
+   * @param file the filter file.
+   * @return the memory mapped filters.
+   */
+  public static ChangedPathIndex open(Repository repo, CommitIndex commits, File file)
+      throws IOException {
+    ChangedPathIndex existing = file.isFile() ? map(commits, file) : null;
+    if (existing != null && existing.size == commits.size()) return existing;
+
+    int from = existing != null ? existing.size : 0;
+    logger.info(
+        String.format(
+            "Computing changed path filters for %d commits...", commits.size() - from));
+
+    List<byte[]> filters = new ArrayList<>(commits.size());
+    for (int i = 0; i < from; i++) filters.add(existing.getFilter(i));
+    for (int i = from; i < commits.size(); i++) filters.add(computeFilter(repo, commits, i));
+
+    write(file, filters, commits.size() > 0 ? commits.getId(commits.size() - 1) : null);
+    return map(commits, file);
+  }
+
+  private static ChangedPathIndex map(CommitIndex commits, File file) throws IOException {
+    ChangedPathIndex index = null;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      index =
+          new ChangedPathIndex(
+              commits, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    /*
+     * The filters are only valid if they were computed for the same ordinals.
+     */
+    if (index.size > commits.size()) return null;
+    if (index.size > 0 && !index.getLastCommit().equals(commits.getId(index.size - 1))) {
+      return null;
+    }
+    return index;
+  }
+
+  private ObjectId getLastCommit() {
+    byte[] raw = new byte[20];
+    for (int i = 0; i < raw.length; i++) raw[i] = buffer.get(16 + i);
+    return ObjectId.fromRaw(raw);
+  }
+
+  /**
+   * Check if a commit might have changed a path.
+   *
+   * @param ordinal the ordinal of the commit.
+   * @param path the path to check.
+   * @return false if the commit certainly didn't change the path.
+   */
+  public boolean mightHaveChanged(int ordinal, String path) {
+    if (ordinal < 0 || ordinal >= size) return true;
+
+    int start = dataOffset + buffer.getInt(HEADER_SIZE + ordinal * 4);
+    int end = dataOffset + buffer.getInt(HEADER_SIZE + (ordinal + 1) * 4);
+    long bits = (end - start) * 8L;
+    if (bits == 0) return false;
+
+    byte[] key = path.getBytes(StandardCharsets.UTF_8);
+    int h1 = murmur3(SEED1, key);
+    int h2 = murmur3(SEED2, key);
+    for (int i = 0; i < NUM_HASHES; i++) {
+      long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+      if ((buffer.get(start + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Follow the first parents of a commit for as long as the commits certainly didn't change a
+   * path. The path has the same content in the start commit and in the returned commit.
+   *
+   * @param ordinal the ordinal of the commit to start from.
+   * @param path the path to follow.
+   * @return the ordinal of the first commit that might have changed the path, or a root commit.
+   */
+  public int findLastChange(int ordinal, String path) {
+    if (ordinal < 0) return ordinal;
+
+    int current = ordinal;
+    while (current < size && !mightHaveChanged(current, path)) {
+      int parent = commits.getFirstParent(current);
+      if (parent < 0) break;
+      current = parent;
+    }
+    return current;
+  }
+
+  private byte[] getFilter(int ordinal) {
+    int start = dataOffset + buffer.getInt(HEADER_SIZE + ordinal * 4);
+    int end = dataOffset + buffer.getInt(HEADER_SIZE + (ordinal + 1) * 4);
+
+    byte[] filter = new byte[end - start];
+    for (int i = 0; i < filter.length; i++) filter[i] = buffer.get(start + i);
+    return filter;
+  }
+
+  /** Compute the filter of a commit from the diff against its first parent. */
+  private static byte[] computeFilter(Repository repo, CommitIndex commits, int ordinal)
+      throws IOException {
+    Set<String> paths = new HashSet<>();
+    boolean tooLarge = false;
+
+    try (TreeWalk walk = new TreeWalk(repo)) {
+      int parent = commits.getFirstParent(ordinal);
+      if (parent >= 0) walk.addTree(commits.getTree(parent));
+      else walk.addTree(new EmptyTreeIterator());
+      walk.addTree(commits.getTree(ordinal));
+      walk.setRecursive(true);
+      walk.setFilter(TreeFilter.ANY_DIFF);
+
+      int changes = 0;
+      while (walk.next()) {
+        if (++changes > MAX_CHANGED_PATHS) {
+          tooLarge = true;
+          break;
+        }
+
+        String path = walk.getPathString();
+        paths.add(path);
+        int slash = path.lastIndexOf('/');
+        while (slash > 0 && paths.add(path.substring(0, slash))) {
+          slash = path.lastIndexOf('/', slash - 1);
+        }
+      }
+    }
+
+    if (tooLarge) return new byte[] {(byte) 0xff};
+    if (paths.isEmpty()) return new byte[0];
+
+    long bits = ((long) paths.size() * BITS_PER_ENTRY + 7) / 8 * 8;
+    byte[] filter = new byte[(int) (bits / 8)];
+    for (String path : paths) {
+      byte[] key = path.getBytes(StandardCharsets.UTF_8);
+      int h1 = murmur3(SEED1, key);
+      int h2 = murmur3(SEED2, key);
+      for (int i = 0; i < NUM_HASHES; i++) {
+        long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+        filter[(int) (bit >>> 3)] |= 1 << (bit & 7);
+      }
+    }
+    return filter;
+  }
+
+  private static void write(File file, List<byte[]> filters, ObjectId last) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null) parent.mkdirs();
+    File tmp = new File(file.getPath() + ".tmp");
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(filters.size());
+      out.writeInt(0);
+
+      byte[] raw = new byte[20];
+      if (last != null) last.copyRawTo(raw, 0);
+      out.write(raw);
+
+      int offset = 0;
+      out.writeInt(offset);
+      for (byte[] filter : filters) {
+        offset += filter.length;
+        out.writeInt(offset);
+      }
+      for (byte[] filter : filters) out.write(filter);
+    }
+
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** The 32 bit murmur3 hash. */
+  @SuppressWarnings("fallthrough")
+  private static int murmur3(int seed, byte[] data) {
+    int hash = seed;
+    int blocks = data.length / 4;
+
+    for (int i = 0; i < blocks; i++) {
+      int k =
+          (data[i * 4] & 0xff)
+              | (data[i * 4 + 1] & 0xff) << 8
+              | (data[i * 4 + 2] & 0xff) << 16
+              | (data[i * 4 + 3] & 0xff) << 24;
+      k *= 0xcc9e2d51;
+      k = Integer.rotateLeft(k, 15);
+      k *= 0x1b873593;
+
+      hash ^= k;
+      hash = Integer.rotateLeft(hash, 13);
+      hash = hash * 5 + 0xe6546b64;
+    }
+
+    int k = 0;
+    int tail = blocks * 4;
+    switch (data.length & 3) {
+      case 3:
+        k ^= (data[tail + 2] & 0xff) << 16;
+        // fall through
+      case 2:
+        k ^= (data[tail + 1] & 0xff) << 8;
+        // fall through
+      case 1:
+        k ^= data[tail] & 0xff;
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        k *= 0x1b873593;
+        hash ^= k;
+    }
+
+    hash ^= data.length;
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+}
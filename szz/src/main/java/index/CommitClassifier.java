@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package index;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Classifies the messages of commits by a pattern. Each message is decoded and matched once per
+ * run, and the result is kept in a bitset by the ordinal of the commit in the {@link
+ * CommitIndex}. Commits that aren't in the index are kept by their hex strings.
+ *
+ * <p>The commits are classified in batches, so that a lookup never has to parse a commit. A batch
+ * publishes new copies of the bitsets when it's done, so lookups of classified commits don't take
+ * any lock and can be made from parallel streams.
+ *
+ * @author Oscar Svensson
+ */
+public class CommitClassifier {
+
+  private static Map<String, CommitClassifier> instances = new HashMap<>();
+
+  private Repository repo;
+  private CommitIndex index;
+  private Pattern pattern;
+
+  private volatile BitSet classified = new BitSet();
+  private volatile BitSet matches = new BitSet();
+  private Map<String, Boolean> unindexed = new ConcurrentHashMap<>();
+
+  private CommitClassifier(Repository repo, String pattern) {
+    this.repo = repo;
+    this.index = CommitIndex.peek(repo);
+    this.pattern = Pattern.compile(pattern);
+  }
+
+  /**
+   * Get the classifier of a pattern. The classifier is created the first time it is requested
+   * during a run and is then shared by all threads.
+   *
+   * @param repo the repository of the commits.
+   * @param pattern the pattern to match the messages against.
+   * @return the classifier.
+   */
+  public static synchronized CommitClassifier getInstance(Repository repo, String pattern) {
+    String key = repo.getDirectory().getAbsolutePath() + "\n" + pattern;
+    if (!instances.containsKey(key)) instances.put(key, new CommitClassifier(repo, pattern));
+    return instances.get(key);
+  }
+
+  /**
+   * Classify the commits that haven't been classified yet.
+   *
+   * @param commits the hex strings of the commits.
+   */
+  public synchronized void classify(Collection<String> commits) throws IOException {
+    BitSet classified = this.classified;
+    BitSet matches = this.matches;
+    boolean copied = false;
+
+    try (RevWalk walk = new RevWalk(this.repo)) {
+      for (String commit : commits) {
+        int ordinal = this.index != null ? this.index.resolve(commit) : -1;
+        if (ordinal >= 0) {
+          if (classified.get(ordinal)) continue;
+
+          if (!copied) {
+            classified = (BitSet) classified.clone();
+            matches = (BitSet) matches.clone();
+            copied = true;
+          }
+          matches.set(ordinal, match(walk, this.index.getId(ordinal)));
+          classified.set(ordinal);
+        } else if (!unindexed.containsKey(commit)) {
+          ObjectId id = this.repo.resolve(commit);
+          unindexed.put(commit, id != null && match(walk, id));
+        }
+      }
+    }
+
+    /*
+     * The matches are published before the classified commits, so a lookup that sees a commit as
+     * classified also sees its match.
+     */
+    this.matches = matches;
+    this.classified = classified;
+  }
+
+  /**
+   * Check if the message of a commit matches the pattern. The commit is classified if it hasn't
+   * been already, otherwise the lookup doesn't take any lock.
+   *
+   * @param commit the hex string of the commit.
+   * @return true if the message matches the pattern.
+   */
+  public boolean matches(String commit) throws IOException {
+    int ordinal = this.index != null ? this.index.resolve(commit) : -1;
+    if (ordinal >= 0) {
+      if (!this.classified.get(ordinal)) classify(Collections.singletonList(commit));
+      return this.matches.get(ordinal);
+    }
+
+    if (!unindexed.containsKey(commit)) classify(Collections.singletonList(commit));
+    return unindexed.get(commit);
+  }
+
+  private boolean match(RevWalk walk, ObjectId id) throws IOException {
+    RevCommit commit = walk.parseCommit(id);
+    return this.pattern.matcher(commit.getFullMessage()).find();
+  }
+}
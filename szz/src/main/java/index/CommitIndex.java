@@ -0,0 +1,578 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.Configuration;
+
+/**
+ * A persistent index of all commits in a repository. It is stored in the index directory of the
+ * repository, built once and then updated with the commits that have been added since the last
+ * run. The index is memory mapped so that lookups never touch the pack files.
+ *
+ * <p>The index is only built for the options that need it. The other users only take shortcuts
+ * through it when it has already been opened during the run, see {@link #peek}.
+ *
+ * <p>Each commit gets an ordinal. The ordinals are in topological order, a parent always has a
+ * lower ordinal than its children. For each commit the index holds its id, tree, parents,
+ * generation number, commit time, author time and a hash of its message.
+ *
+ * <p>The file consists of a header, the commit records in ordinal order, the ordinals sorted by
+ * commit id, the ordinals sorted by message hash, the parents of octopus merges and the tips that
+ * the index was built from.
+ *
+ * @author Oscar Svensson
+ */
+public class CommitIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(CommitIndex.class);
+
+  private static final int MAGIC = 0x535a4349; // SZCI
+  private static final int VERSION = 1;
+  private static final String INDEX_PATH = "commit-index";
+
+  private static final int HEADER_SIZE = 6 * 4;
+  private static final int RECORD_SIZE = 20 + 20 + 4 * 6 + 8;
+
+  private static final int ID = 0;
+  private static final int TREE = 20;
+  private static final int GENERATION = 40;
+  private static final int COMMIT_TIME = 44;
+  private static final int AUTHOR_TIME = 48;
+  private static final int PARENT1 = 52;
+  private static final int PARENT2 = 56;
+  private static final int EXTRA_PARENTS = 60;
+  private static final int MESSAGE_HASH = 64;
+
+  private static final int NO_PARENT = -1;
+
+  private static Map<File, CommitIndex> instances = new HashMap<>();
+
+  private ByteBuffer buffer;
+  private int size;
+  private int idTable;
+  private int messageTable;
+  private int extraTable;
+
+  private CommitIndex(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a commit index!");
+    }
+    this.size = buffer.getInt(8);
+    this.idTable = HEADER_SIZE + size * RECORD_SIZE;
+    this.messageTable = idTable + size * 4;
+    this.extraTable = messageTable + size * 4;
+  }
+
+  /**
+   * Get the index of a repository. The index is built or updated the first time it is requested
+   * during a run and is then shared by all threads.
+   *
+   * @param repo the repository to index.
+   * @return the index or null if it couldn't be built.
+   */
+  public static synchronized CommitIndex getInstance(Repository repo) {
+    File directory = repo.getDirectory().getAbsoluteFile();
+    if (instances.containsKey(directory)) return instances.get(directory);
+
+    CommitIndex index = null;
+    try {
+      index = open(repo, new File(getDirectory(repo), INDEX_PATH));
+    } catch (IOException e) {
+      logger.warn("Couldn't build the commit index: " + e.getMessage());
+    }
+    instances.put(directory, index);
+    return index;
+  }
+
+  /**
+   * Get the index of a repository if it has already been opened during the run. The index is never
+   * built by this method.
+   *
+   * @param repo the indexed repository.
+   * @return the index or null if it hasn't been opened.
+   */
+  public static synchronized CommitIndex peek(Repository repo) {
+    return instances.get(repo.getDirectory().getAbsoluteFile());
+  }
+
+  /**
+   * Get the directory that the indexes of a repository are stored in. The indexes are kept outside
+   * of the repository, in a directory of their own under the configured index path.
+   *
+   * @param repo the repository.
+   * @return the index directory of the repository.
+   */
+  public static File getDirectory(Repository repo) {
+    File gitDirectory = repo.getDirectory().getAbsoluteFile();
+    File named = repo.isBare() ? gitDirectory : gitDirectory.getParentFile();
+
+    String name = String.format("%s-%08x", named.getName(), gitDirectory.getPath().hashCode());
+    return new File(Configuration.getInstance().getIndexPath(), name);
+  }
+
+  /**
+   * Open an index file, building or updating it if it doesn't contain all tips of the repository.
+   *
+   * @param repo the repository to index.
+   * @param file the index file.
+   * @return the memory mapped index.
+   */
+  public static CommitIndex open(Repository repo, File file) throws IOException {
+    CommitIndex existing = file.isFile() ? map(file) : null;
+
+    Set<ObjectId> tips = getTips(repo);
+    if (existing != null && existing.containsAll(tips)) return existing;
+
+    logger.info(existing == null ? "Building commit index..." : "Updating commit index...");
+    Builder builder = new Builder(existing);
+    builder.addCommits(repo, tips);
+    builder.write(file, tips);
+    logger.info(String.format("Commit index contains %d commits.", builder.ids.size()));
+
+    return map(file);
+  }
+
+  private static CommitIndex map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new CommitIndex(buffer);
+    }
+  }
+
+  private static Set<ObjectId> getTips(Repository repo) throws IOException {
+    Set<ObjectId> tips = new HashSet<>();
+    try (RevWalk walk = new RevWalk(repo)) {
+      for (Ref ref : repo.getAllRefs().values()) {
+        ObjectId id = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+        if (id == null) continue;
+        try {
+          tips.add(walk.parseCommit(id).copy());
+        } catch (IOException e) {
+          // The ref doesn't point to a commit.
+        }
+      }
+    }
+    return tips;
+  }
+
+  private boolean containsAll(Set<ObjectId> tips) {
+    for (ObjectId tip : tips) {
+      if (ordinal(tip) < 0) return false;
+    }
+    return true;
+  }
+
+  /** The number of commits in the index. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Find the ordinal of a commit.
+   *
+   * @param id the id of the commit.
+   * @return the ordinal or -1 if the commit isn't indexed.
+   */
+  public int ordinal(AnyObjectId id) {
+    byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+    id.copyRawTo(raw, 0);
+
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int ordinal = buffer.getInt(idTable + mid * 4);
+      int cmp = compareId(ordinal, raw, raw.length);
+      if (cmp < 0) low = mid + 1;
+      else if (cmp > 0) high = mid - 1;
+      else return ordinal;
+    }
+    return -1;
+  }
+
+  /**
+   * Resolve a full or abbreviated hex string of a commit.
+   *
+   * @param hex the hex string.
+   * @return the ordinal, or -1 if no commit or more than one commit matches.
+   */
+  public int resolve(String hex) {
+    if (hex == null) return -1;
+    if (ObjectId.isId(hex)) return ordinal(ObjectId.fromString(hex));
+    if (hex.length() < 4 || hex.length() > Constants.OBJECT_ID_STRING_LENGTH) return -1;
+
+    byte[] prefix = new byte[(hex.length() + 1) / 2];
+    try {
+      for (int i = 0; i < hex.length(); i++) {
+        int nibble = Character.digit(hex.charAt(i), 16);
+        if (nibble < 0) return -1;
+        prefix[i / 2] |= (i % 2 == 0) ? nibble << 4 : nibble;
+      }
+    } catch (Exception e) {
+      return -1;
+    }
+
+    /*
+     * Find the first commit that is equal or larger than the prefix and check that the next one
+     * doesn't match too.
+     */
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compareId(buffer.getInt(idTable + mid * 4), prefix, prefix.length) < 0) low = mid + 1;
+      else high = mid;
+    }
+
+    int found = -1;
+    for (int i = low; i < size && i < low + 2; i++) {
+      int ordinal = buffer.getInt(idTable + i * 4);
+      if (!startsWith(ordinal, hex)) break;
+      if (found >= 0) return -1;
+      found = ordinal;
+    }
+    return found;
+  }
+
+  public ObjectId getId(int ordinal) {
+    return ObjectId.fromRaw(readBytes(record(ordinal) + ID, Constants.OBJECT_ID_LENGTH));
+  }
+
+  public ObjectId getTree(int ordinal) {
+    return ObjectId.fromRaw(readBytes(record(ordinal) + TREE, Constants.OBJECT_ID_LENGTH));
+  }
+
+  public int getGeneration(int ordinal) {
+    return buffer.getInt(record(ordinal) + GENERATION);
+  }
+
+  /** The commit time in seconds since the epoch. */
+  public long getCommitTime(int ordinal) {
+    return buffer.getInt(record(ordinal) + COMMIT_TIME) & 0xffffffffL;
+  }
+
+  /** The author time in seconds since the epoch. */
+  public long getAuthorTime(int ordinal) {
+    return buffer.getInt(record(ordinal) + AUTHOR_TIME) & 0xffffffffL;
+  }
+
+  public long getMessageHash(int ordinal) {
+    return buffer.getLong(record(ordinal) + MESSAGE_HASH);
+  }
+
+  public int[] getParents(int ordinal) {
+    int base = record(ordinal);
+    int extra = buffer.getInt(base + EXTRA_PARENTS);
+    if (extra >= 0) {
+      int count = buffer.getInt(extraTable + 4 + extra * 4);
+      int[] parents = new int[count];
+      for (int i = 0; i < count; i++) {
+        parents[i] = buffer.getInt(extraTable + 4 + (extra + 1 + i) * 4);
+      }
+      return parents;
+    }
+
+    int first = buffer.getInt(base + PARENT1);
+    int second = buffer.getInt(base + PARENT2);
+    if (first == NO_PARENT) return new int[0];
+    if (second == NO_PARENT) return new int[] {first};
+    return new int[] {first, second};
+  }
+
+  /** The first parent of a commit or -1 for a root commit. */
+  public int getFirstParent(int ordinal) {
+    return buffer.getInt(record(ordinal) + PARENT1);
+  }
+
+  /**
+   * Find all commits that have the same message hash.
+   *
+   * @param hash the hash of a message.
+   * @return the ordinals of the commits with that message hash.
+   */
+  public int[] getCommitsWithMessageHash(long hash) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getMessageHash(buffer.getInt(messageTable + mid * 4)) < hash) low = mid + 1;
+      else high = mid;
+    }
+
+    int end = low;
+    while (end < size && getMessageHash(buffer.getInt(messageTable + end * 4)) == hash) end++;
+
+    int[] ordinals = new int[end - low];
+    for (int i = low; i < end; i++) ordinals[i - low] = buffer.getInt(messageTable + i * 4);
+    return ordinals;
+  }
+
+  /**
+   * Check if a commit is an ancestor of another commit. A commit is an ancestor of itself. The
+   * search is pruned with the generation numbers.
+   *
+   * @param ancestor the ordinal of the potential ancestor.
+   * @param descendant the ordinal of the potential descendant.
+   * @return if ancestor is reachable from descendant.
+   */
+  public boolean isAncestor(int ancestor, int descendant) {
+    if (ancestor == descendant) return true;
+    if (ancestor > descendant) return false;
+
+    int generation = getGeneration(ancestor);
+    BitSet seen = new BitSet(descendant + 1);
+    Deque<Integer> stack = new ArrayDeque<>();
+    stack.push(descendant);
+    seen.set(descendant);
+
+    while (!stack.isEmpty()) {
+      int current = stack.pop();
+      for (int parent : getParents(current)) {
+        if (parent == ancestor) return true;
+        if (seen.get(parent) || parent < ancestor || getGeneration(parent) <= generation) continue;
+        seen.set(parent);
+        stack.push(parent);
+      }
+    }
+    return false;
+  }
+
+  /** Hash a commit message with 64 bit FNV-1a. */
+  public static long hashMessage(String message) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : message.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private int record(int ordinal) {
+    if (ordinal < 0 || ordinal >= size) {
+      throw new IndexOutOfBoundsException(Integer.toString(ordinal));
+    }
+    return HEADER_SIZE + ordinal * RECORD_SIZE;
+  }
+
+  private byte[] readBytes(int offset, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) bytes[i] = buffer.get(offset + i);
+    return bytes;
+  }
+
+  private int compareId(int ordinal, byte[] raw, int length) {
+    int base = record(ordinal) + ID;
+    for (int i = 0; i < length; i++) {
+      int cmp = (buffer.get(base + i) & 0xff) - (raw[i] & 0xff);
+      if (cmp != 0) return cmp;
+    }
+    return 0;
+  }
+
+  private boolean startsWith(int ordinal, String hex) {
+    return getId(ordinal).name().startsWith(hex.toLowerCase());
+  }
+
+  /** Collects the commits and writes a new index file. */
+  private static class Builder {
+    private List<ObjectId> ids = new ArrayList<>();
+    private List<ObjectId> trees = new ArrayList<>();
+    private List<int[]> parents = new ArrayList<>();
+    private List<Integer> generations = new ArrayList<>();
+    private List<Integer> commitTimes = new ArrayList<>();
+    private List<Integer> authorTimes = new ArrayList<>();
+    private List<Long> messageHashes = new ArrayList<>();
+
+    private Map<ObjectId, Integer> ordinals = new HashMap<>();
+    private CommitIndex existing;
+
+    Builder(CommitIndex existing) {
+      this.existing = existing;
+      if (existing == null) return;
+
+      for (int i = 0; i < existing.size(); i++) {
+        ObjectId id = existing.getId(i);
+        ids.add(id);
+        trees.add(existing.getTree(i));
+        parents.add(existing.getParents(i));
+        generations.add(existing.getGeneration(i));
+        commitTimes.add((int) existing.getCommitTime(i));
+        authorTimes.add((int) existing.getAuthorTime(i));
+        messageHashes.add(existing.getMessageHash(i));
+        ordinals.put(id, i);
+      }
+    }
+
+    /** Add all commits reachable from the tips that aren't already indexed. */
+    void addCommits(Repository repo, Set<ObjectId> tips) throws IOException {
+      try (RevWalk walk = new RevWalk(repo)) {
+        walk.sort(RevSort.TOPO);
+        walk.sort(RevSort.REVERSE, true);
+
+        for (ObjectId tip : tips) {
+          if (ordinals.containsKey(tip)) walk.markUninteresting(walk.parseCommit(tip));
+          else walk.markStart(walk.parseCommit(tip));
+        }
+        if (existing != null) {
+          for (ObjectId tip : existing.getIndexedTips()) {
+            try {
+              walk.markUninteresting(walk.parseCommit(tip));
+            } catch (IOException e) {
+              // The old tip doesn't exist anymore.
+            }
+          }
+        }
+
+        for (RevCommit commit : walk) {
+          ObjectId id = commit.copy();
+          if (ordinals.containsKey(id)) continue;
+
+          int[] commitParents = new int[commit.getParentCount()];
+          int generation = 1;
+          for (int i = 0; i < commitParents.length; i++) {
+            Integer parent = ordinals.get(commit.getParent(i).getId());
+            if (parent == null) {
+              throw new IOException("Parent of " + id.name() + " isn't indexed!");
+            }
+            commitParents[i] = parent;
+            generation = Math.max(generation, generations.get(parent) + 1);
+          }
+
+          ordinals.put(id, ids.size());
+          ids.add(id);
+          trees.add(commit.getTree().copy());
+          parents.add(commitParents);
+          generations.add(generation);
+          commitTimes.add(commit.getCommitTime());
+          authorTimes.add((int) (commit.getAuthorIdent().getWhen().getTime() / 1000));
+          messageHashes.add(hashMessage(commit.getFullMessage()));
+        }
+      }
+    }
+
+    void write(File file, Set<ObjectId> tips) throws IOException {
+      int size = ids.size();
+
+      List<Integer> byId = new ArrayList<>();
+      List<Integer> byMessage = new ArrayList<>();
+      for (int i = 0; i < size; i++) {
+        byId.add(i);
+        byMessage.add(i);
+      }
+      byId.sort((a, b) -> ids.get(a).compareTo(ids.get(b)));
+      byMessage.sort((a, b) -> Long.compare(messageHashes.get(a), messageHashes.get(b)));
+
+      List<Integer> extra = new ArrayList<>();
+      int[] extraOffsets = new int[size];
+      for (int i = 0; i < size; i++) {
+        int[] commitParents = parents.get(i);
+        if (commitParents.length <= 2) {
+          extraOffsets[i] = -1;
+          continue;
+        }
+        extraOffsets[i] = extra.size();
+        extra.add(commitParents.length);
+        for (int parent : commitParents) extra.add(parent);
+      }
+
+      File parent = file.getParentFile();
+      if (parent != null) parent.mkdirs();
+      File tmp = new File(file.getPath() + ".tmp");
+
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        out.writeInt(extra.size());
+        out.writeInt(tips.size());
+        out.writeInt(0);
+
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        for (int i = 0; i < size; i++) {
+          ids.get(i).copyRawTo(raw, 0);
+          out.write(raw);
+          trees.get(i).copyRawTo(raw, 0);
+          out.write(raw);
+          out.writeInt(generations.get(i));
+          out.writeInt(commitTimes.get(i));
+          out.writeInt(authorTimes.get(i));
+
+          int[] commitParents = parents.get(i);
+          out.writeInt(commitParents.length > 0 ? commitParents[0] : NO_PARENT);
+          out.writeInt(commitParents.length > 1 ? commitParents[1] : NO_PARENT);
+          out.writeInt(extraOffsets[i]);
+          out.writeLong(messageHashes.get(i));
+        }
+
+        for (int ordinal : byId) out.writeInt(ordinal);
+        for (int ordinal : byMessage) out.writeInt(ordinal);
+
+        out.writeInt(extra.size());
+        for (int value : extra) out.writeInt(value);
+
+        for (ObjectId tip : tips) {
+          tip.copyRawTo(raw, 0);
+          out.write(raw);
+        }
+      }
+
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /** The tips that the index was built from. */
+  private List<ObjectId> getIndexedTips() {
+    int count = buffer.getInt(16);
+    int offset = extraTable + 4 + buffer.getInt(12) * 4;
+
+    List<ObjectId> tips = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      tips.add(
+          ObjectId.fromRaw(
+              readBytes(offset + i * Constants.OBJECT_ID_LENGTH, Constants.OBJECT_ID_LENGTH)));
+    }
+    return tips;
+  }
+}
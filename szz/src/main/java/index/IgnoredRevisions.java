@@ -0,0 +1,266 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package index;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The revisions that the trace looks through, like the revisions of git blame --ignore-revs-file.
+ * Lines that are blamed on an ignored revision are blamed again from its parent, so that mass
+ * formatting and bulk refactoring commits don't show up as bug introducers.
+ *
+ * <p>The revisions are read from a file with one revision per line, where anything after a # is a
+ * comment. Commits that only changed whitespace in more than a given number of files can also be
+ * detected from the history. The detected commits are saved in the index directory together with
+ * the HEAD they were detected up to, so a later run only checks the commits that came after it.
+ *
+ * @author Oscar Svensson
+ */
+public class IgnoredRevisions {
+
+  private static final Logger logger = LoggerFactory.getLogger(IgnoredRevisions.class);
+
+  private static final String WHITESPACE_PATH = "whitespace_revs.txt";
+
+  private static Map<File, IgnoredRevisions> instances = new HashMap<>();
+
+  private Set<ObjectId> revisions = new LinkedHashSet<>();
+
+  /**
+   * Get the ignored revisions of a repository. They are read and detected the first time they are
+   * requested during a run and are then shared by all threads.
+   *
+   * @param repo the repository.
+   * @param path the ignore revisions file, or null.
+   * @param whitespaceFiles the number of files a whitespace only commit must change to be ignored,
+   *     or zero to not detect any.
+   * @return the ignored revisions.
+   */
+  public static synchronized IgnoredRevisions getInstance(
+      Repository repo, String path, int whitespaceFiles) {
+    File directory = repo.getDirectory().getAbsoluteFile();
+    if (instances.containsKey(directory)) return instances.get(directory);
+
+    IgnoredRevisions ignored = new IgnoredRevisions();
+    try {
+      if (path != null) ignored.read(repo, new File(path));
+      if (whitespaceFiles > 0) ignored.detectWhitespaceCommits(repo, whitespaceFiles);
+    } catch (IOException e) {
+      logger.warn("Couldn't find the ignored revisions: " + e.getMessage());
+    }
+    instances.put(directory, ignored);
+    return ignored;
+  }
+
+  public boolean isEmpty() {
+    return this.revisions.isEmpty();
+  }
+
+  public int size() {
+    return this.revisions.size();
+  }
+
+  /**
+   * Check if a revision should be looked through.
+   *
+   * @param id the revision.
+   * @return true if the revision is ignored.
+   */
+  public boolean contains(AnyObjectId id) {
+    return this.revisions.contains(id);
+  }
+
+  /** Read the revisions of an ignore revisions file. */
+  private void read(Repository repo, File file) throws IOException {
+    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+      int comment = line.indexOf('#');
+      String revision = (comment >= 0 ? line.substring(0, comment) : line).trim();
+      if (revision.isEmpty()) continue;
+
+      ObjectId id = repo.resolve(revision + "^{commit}");
+      if (id == null) {
+        logger.warn(String.format("Couldn't find the ignored revision %s.", revision));
+      } else {
+        this.revisions.add(id);
+      }
+    }
+    logger.info(String.format("Read %d ignored revisions from %s.", this.revisions.size(), file));
+  }
+
+  /**
+   * Find the commits that only changed whitespace, in more than a given number of files. All
+   * commits that are reachable from HEAD are checked, since the blame follows every parent of a
+   * merge. Merges themselves are never ignored.
+   *
+   * <p>The commits that were found by an earlier run with the same number of files are reused, and
+   * only the commits that aren't reachable from its HEAD are checked.
+   */
+  private void detectWhitespaceCommits(Repository repo, int files) throws IOException {
+    ObjectId head = repo.resolve(Constants.HEAD);
+    if (head == null) return;
+
+    File file = new File(CommitIndex.getDirectory(repo), WHITESPACE_PATH);
+    Set<ObjectId> detected = new LinkedHashSet<>();
+
+    int found = 0;
+    try (RevWalk walk = new RevWalk(repo);
+        ObjectReader reader = repo.newObjectReader();
+        DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+      formatter.setRepository(repo);
+      RevCommit start = walk.parseCommit(head);
+
+      ObjectId detectedHead = readWhitespaceCommits(repo, file, files, detected);
+      if (detectedHead != null && walk.isMergedInto(walk.parseCommit(detectedHead), start)) {
+        walk.reset();
+        walk.markUninteresting(walk.parseCommit(detectedHead));
+      } else {
+        walk.reset();
+        detected.clear();
+      }
+      walk.markStart(start);
+
+      for (RevCommit commit : walk) {
+        if (commit.getParentCount() != 1) continue;
+
+        RevCommit parent = walk.parseCommit(commit.getParent(0));
+        List<DiffEntry> entries = formatter.scan(parent.getTree(), commit.getTree());
+        if (entries.size() <= files || !isWhitespaceOnly(reader, entries)) continue;
+
+        detected.add(commit.copy());
+        found++;
+      }
+    }
+    logger.info(
+        String.format(
+            "Found %d commits that only changed whitespace in more than %d files, %d of them in"
+                + " earlier runs.",
+            detected.size(), files, detected.size() - found));
+
+    this.revisions.addAll(detected);
+    try {
+      saveWhitespaceCommits(file, files, head, detected);
+    } catch (IOException e) {
+      logger.warn("Couldn't save the whitespace commits: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Read the whitespace commits that an earlier run found.
+   *
+   * @param repo the repository.
+   * @param file the file of the earlier run.
+   * @param files the number of files the commits must have changed.
+   * @param detected the set to add the commits to.
+   * @return the HEAD that the commits were detected up to, or null if they can't be reused.
+   */
+  private static ObjectId readWhitespaceCommits(
+      Repository repo, File file, int files, Set<ObjectId> detected) {
+    if (!file.exists()) return null;
+
+    try {
+      List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+      String[] header = lines.isEmpty() ? new String[0] : lines.get(0).split(" ");
+      if (header.length != 3 || Integer.parseInt(header[1]) != files) return null;
+
+      ObjectId head = ObjectId.fromString(header[2]);
+      if (!repo.hasObject(head)) return null;
+
+      for (String line : lines.subList(1, lines.size())) {
+        if (!line.isEmpty()) detected.add(ObjectId.fromString(line));
+      }
+      return head;
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Couldn't read the whitespace commits of an earlier run: " + e.getMessage());
+      detected.clear();
+      return null;
+    }
+  }
+
+  /** Save the whitespace commits, with the number of files and the HEAD they were found for. */
+  private static void saveWhitespaceCommits(
+      File file, int files, ObjectId head, Set<ObjectId> detected) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null) parent.mkdirs();
+    File tmp = new File(file.getPath() + ".tmp");
+
+    try (PrintWriter writer = new PrintWriter(new FileWriter(tmp))) {
+      writer.println("# " + files + " " + head.getName());
+      for (ObjectId id : detected) writer.println(id.getName());
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** Check if all files were only modified in whitespace. */
+  private static boolean isWhitespaceOnly(ObjectReader reader, List<DiffEntry> entries)
+      throws IOException {
+    DiffAlgorithm algorithm =
+        DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+    for (DiffEntry entry : entries) {
+      if (entry.getChangeType() != DiffEntry.ChangeType.MODIFY) return false;
+
+      try {
+        RawText oldText = new RawText(reader.open(entry.getOldId().toObjectId()).getCachedBytes());
+        RawText newText = new RawText(reader.open(entry.getNewId().toObjectId()).getCachedBytes());
+        if (!algorithm.diff(RawTextComparator.WS_IGNORE_ALL, oldText, newText).isEmpty()) {
+          return false;
+        }
+      } catch (LargeObjectException e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Save the revisions in the format of an ignore revisions file.
+   *
+   * @param file the file to write to.
+   */
+  public void save(File file) throws IOException {
+    try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+      writer.println("# Revisions that were looked through when the changes were traced.");
+      for (ObjectId id : this.revisions) writer.println(id.getName());
+    }
+  }
+}
@@ -0,0 +1,546 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.BlobCache;
+
+/**
+ * A persistent index of line provenance. For a file in a commit it answers, for each line, the
+ * commit that introduced the line and the line number in that commit. This is the same answer as
+ * a blame of the file gives, for the histories that the index can answer.
+ *
+ * <p>The provenance of a file version is computed from the provenance of the versions in the
+ * parents, so the history of a file is processed forwards from the oldest version that is missing
+ * in the index. Each version is diffed with the same algorithm and comparator as the blame in
+ * JGit, and renames and merges that take the file from a single parent are resolved in the same
+ * order as JGit does it. Only the commits that changed a file get an entry, the other commits are
+ * resolved through the first parent chain.
+ *
+ * <p>A merge that takes lines from more than one parent isn't answered. JGit follows each parent
+ * with the lines it was given, and where the parents meet again the lines are merged into a
+ * single list that is ordered by the blamed file, while the next diff expects them in the order
+ * of the older file. The blame then depends on the order that the history is walked in, and
+ * can't be computed from the provenance of the parents. Such versions, and the versions that
+ * depend on them, are stored as unresolved and are left to JGit.
+ *
+ * <p>The entries are appended to two files in the index directory of the repository, one with the
+ * keys and one with the origins. The origins are memory mapped when the index is opened. The
+ * commits are stored by id, so the entries stay valid when the commit index is updated.
+ *
+ * <p>An index can also be kept in memory only. It then holds the history of the files that have
+ * been blamed with it, which makes repeated blames of the same file in older commits cheap.
+ *
+ * @author Oscar Svensson
+ */
+public class ProvenanceIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(ProvenanceIndex.class);
+
+  private static final String KEYS_PATH = "provenance-keys";
+  private static final String DATA_PATH = "provenance-data";
+
+  private static final int[] NO_LINES = new int[0];
+
+  /** The provenance of a version that has to be blamed with JGit. */
+  private static final int[] UNRESOLVED = new int[0];
+
+  private static Map<File, ProvenanceIndex> instances = new HashMap<>();
+
+  private Repository repo;
+  private CommitIndex commits;
+  private ChangedPathIndex changedPaths;
+
+  private DiffAlgorithm diffAlgorithm = new HistogramDiff();
+  private RawTextComparator textComparator = RawTextComparator.DEFAULT;
+
+  private Map<Key, long[]> entries = new ConcurrentHashMap<>();
+  private Map<Key, int[]> memory = null;
+
+  private DataOutputStream keys;
+  private FileChannel data;
+  private ByteBuffer mapped;
+  private long dataSize;
+
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+
+  /** A version of a file, the commit that last changed it and its path. */
+  private static class Key {
+    private int ordinal;
+    private String path;
+
+    Key(int ordinal, String path) {
+      this.ordinal = ordinal;
+      this.path = path;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return ordinal == other.ordinal && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * ordinal + path.hashCode();
+    }
+  }
+
+  /** The versions that a file version is computed from, in the order they take lines. */
+  private static class Sources {
+    private ObjectId blob;
+    private List<Key> keys = new ArrayList<>();
+    private List<ObjectId> blobs = new ArrayList<>();
+
+    /** The version has the same provenance as another version. */
+    private Key alias;
+  }
+
+  private ProvenanceIndex(Repository repo, CommitIndex commits) {
+    this.repo = repo;
+    this.commits = commits;
+    this.changedPaths = ChangedPathIndex.getInstance(repo);
+    this.memory = new HashMap<>();
+  }
+
+  private ProvenanceIndex(Repository repo, CommitIndex commits, File directory)
+      throws IOException {
+    this.repo = repo;
+    this.commits = commits;
+    this.changedPaths = ChangedPathIndex.getInstance(repo);
+
+    File keyFile = new File(directory, KEYS_PATH);
+    File dataFile = new File(directory, DATA_PATH);
+    keyFile.getParentFile().mkdirs();
+
+    this.data =
+        FileChannel.open(
+            dataFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    this.dataSize = this.data.size();
+    this.mapped =
+        this.data.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(dataSize, Integer.MAX_VALUE));
+
+    readKeys(keyFile);
+    this.keys =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(keyFile, true)));
+  }
+
+  /**
+   * Get the provenance index of a repository. It is shared by all threads.
+   *
+   * @param repo the repository.
+   * @return the index or null if it couldn't be opened.
+   */
+  public static synchronized ProvenanceIndex getInstance(Repository repo) {
+    File directory = repo.getDirectory().getAbsoluteFile();
+    if (instances.containsKey(directory)) return instances.get(directory);
+
+    ProvenanceIndex index = null;
+    CommitIndex commits = CommitIndex.getInstance(repo);
+    if (commits != null) {
+      try {
+        index = open(repo, commits, CommitIndex.getDirectory(repo));
+      } catch (IOException e) {
+        logger.warn("Couldn't open the provenance index: " + e.getMessage());
+      }
+    }
+    instances.put(directory, index);
+    return index;
+  }
+
+  /**
+   * Open the index that is stored in a directory, creating it if it doesn't exist.
+   *
+   * @param repo the repository.
+   * @param commits the commit index of the repository.
+   * @param directory the directory of the index files.
+   * @return the index.
+   */
+  static ProvenanceIndex open(Repository repo, CommitIndex commits, File directory)
+      throws IOException {
+    return new ProvenanceIndex(repo, commits, directory);
+  }
+
+  /**
+   * Create an index that is only kept in memory.
+   *
+   * @param repo the repository.
+   * @return the index or null if the repository couldn't be indexed.
+   */
+  public static ProvenanceIndex createInMemory(Repository repo) {
+    CommitIndex commits = CommitIndex.getInstance(repo);
+    return commits != null ? new ProvenanceIndex(repo, commits) : null;
+  }
+
+  /**
+   * Blame a file in a commit.
+   *
+   * @param commit the commit.
+   * @param path the path of the file.
+   * @return the ordinal of the origin commit and the origin line for each line, interleaved. It is
+   *     empty if the file doesn't exist and null if the provenance couldn't be computed or has to
+   *     be blamed with JGit.
+   */
+  public int[] blame(AnyObjectId commit, String path) {
+    int ordinal = this.commits.ordinal(commit);
+    if (ordinal < 0) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    try {
+      Key key = getVersion(ordinal, path);
+      if (key == null) return NO_LINES;
+
+      if (contains(key)) hits.incrementAndGet();
+      else misses.incrementAndGet();
+
+      int[] origins = compute(key);
+      return origins != UNRESOLVED ? origins : null;
+    } catch (IOException | RuntimeException e) {
+      logger.warn(
+          String.format("Couldn't compute the provenance of %s: %s", path, e.getMessage()));
+      return null;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Find the version of a file in a commit, that is the commit on the first parent chain that last
+   * changed the file.
+   *
+   * @return the version or null if the file doesn't exist in the commit.
+   */
+  private Key getVersion(int ordinal, String path) throws IOException {
+    ObjectId blob = findFile(ordinal, path);
+    if (blob == null) return null;
+
+    int current = ordinal;
+    while (true) {
+      if (this.changedPaths != null) current = this.changedPaths.findLastChange(current, path);
+
+      int parent = this.commits.getFirstParent(current);
+      if (parent < 0 || !blob.equals(findFile(parent, path))) return new Key(current, path);
+      current = parent;
+    }
+  }
+
+  /** Compute the provenance of a version and all versions it depends on that aren't indexed. */
+  private int[] compute(Key target) throws IOException {
+    Map<Key, int[]> computed = new HashMap<>();
+    Map<Key, Sources> sources = new HashMap<>();
+    Deque<Key> stack = new ArrayDeque<>();
+    stack.push(target);
+
+    while (!stack.isEmpty()) {
+      Key key = stack.peek();
+      if (computed.containsKey(key)) {
+        stack.pop();
+        continue;
+      }
+
+      int[] stored = read(key);
+      if (stored != null) {
+        computed.put(key, stored);
+        stack.pop();
+        continue;
+      }
+
+      Sources source = sources.get(key);
+      if (source == null) {
+        source = getSources(key);
+        sources.put(key, source);
+      }
+
+      if (source.alias == null && source.keys.size() > 1) {
+        store(key, UNRESOLVED);
+        computed.put(key, UNRESOLVED);
+        sources.remove(key);
+        stack.pop();
+        continue;
+      }
+
+      /*
+       * Compute the versions that this version depends on first.
+       */
+      boolean ready = true;
+      List<Key> dependencies =
+          source.alias != null ? Collections.singletonList(source.alias) : source.keys;
+      for (Key dependency : dependencies) {
+        if (!computed.containsKey(dependency)) {
+          stack.push(dependency);
+          ready = false;
+        }
+      }
+      if (!ready) continue;
+
+      int[] origins = null;
+      if (source.alias != null) origins = computed.get(source.alias);
+      else if (!source.keys.isEmpty() && computed.get(source.keys.get(0)) == UNRESOLVED)
+        origins = UNRESOLVED;
+      else origins = computeOrigins(key, source, computed);
+      store(key, origins);
+      computed.put(key, origins);
+      sources.remove(key);
+      stack.pop();
+    }
+
+    return computed.get(target);
+  }
+
+  /** Find the versions in the parents that a version takes its lines from, in the JGit order. */
+  private Sources getSources(Key key) throws IOException {
+    Sources sources = new Sources();
+    sources.blob = findFile(key.ordinal, key.path);
+
+    int[] parents = this.commits.getParents(key.ordinal);
+    ObjectId[] ids = new ObjectId[parents.length];
+    for (int i = 0; i < parents.length; i++) {
+      ids[i] = findFile(parents[i], key.path);
+      if (sources.blob.equals(ids[i])) {
+        sources.alias = getVersion(parents[i], key.path);
+        return sources;
+      }
+    }
+
+    String[] oldPaths = new String[parents.length];
+    for (int i = 0; i < parents.length; i++) {
+      if (ids[i] != null) continue;
+
+      DiffEntry rename = findRename(parents[i], key.ordinal, key.path);
+      if (rename == null) continue;
+
+      if (rename.getOldId().toObjectId().equals(sources.blob)) {
+        sources.alias = getVersion(parents[i], rename.getOldPath());
+        return sources;
+      }
+      oldPaths[i] = rename.getOldPath();
+      ids[i] = rename.getOldId().toObjectId();
+    }
+
+    for (int i = 0; i < parents.length; i++) {
+      if (ids[i] == null) continue;
+
+      Key version = getVersion(parents[i], oldPaths[i] != null ? oldPaths[i] : key.path);
+      if (version == null) continue;
+      sources.keys.add(version);
+      sources.blobs.add(ids[i]);
+    }
+    return sources;
+  }
+
+  /**
+   * Compute the origins of a version. The lines in the common regions with the source are taken
+   * from it. The lines that are left were introduced by the version itself.
+   */
+  private int[] computeOrigins(Key key, Sources sources, Map<Key, int[]> computed)
+      throws IOException {
+    RawText text = getText(sources.blob);
+    int size = text.size();
+
+    int[] origins = new int[size * 2];
+    boolean[] assigned = new boolean[size];
+
+    for (int s = 0; s < sources.keys.size(); s++) {
+      int[] parentOrigins = computed.get(sources.keys.get(s));
+      RawText parentText = getText(sources.blobs.get(s));
+      EditList edits = this.diffAlgorithm.diff(this.textComparator, parentText, text);
+
+      int line = 0;
+      int offset = 0;
+      for (int e = 0; e <= edits.size(); e++) {
+        Edit edit = e < edits.size() ? edits.get(e) : null;
+        int end = edit != null ? edit.getBeginB() : size;
+
+        for (; line < end; line++) {
+          if (assigned[line]) continue;
+          int parentLine = line + offset;
+          origins[line * 2] = parentOrigins[parentLine * 2];
+          origins[line * 2 + 1] = parentOrigins[parentLine * 2 + 1];
+          assigned[line] = true;
+        }
+
+        if (edit != null) {
+          line = edit.getEndB();
+          offset = edit.getEndA() - edit.getEndB();
+        }
+      }
+    }
+
+    for (int line = 0; line < size; line++) {
+      if (assigned[line]) continue;
+      origins[line * 2] = key.ordinal;
+      origins[line * 2 + 1] = line;
+    }
+    return origins;
+  }
+
+  /** Find the blob of a file in a commit, or null if it isn't a regular file there. */
+  private ObjectId findFile(int ordinal, String path) throws IOException {
+    try (TreeWalk walk = TreeWalk.forPath(this.repo, path, this.commits.getTree(ordinal))) {
+      if (walk == null) return null;
+      if ((walk.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) return null;
+      return walk.getObjectId(0);
+    }
+  }
+
+  /** Find the file that a file was renamed or copied from, the same way as the JGit blame. */
+  private DiffEntry findRename(int parent, int ordinal, String path) throws IOException {
+    try (TreeWalk walk = new TreeWalk(this.repo)) {
+      walk.setRecursive(true);
+      walk.setFilter(TreeFilter.ANY_DIFF);
+      walk.reset(this.commits.getTree(parent), this.commits.getTree(ordinal));
+
+      RenameDetector detector = new RenameDetector(this.repo);
+      detector.addAll(DiffEntry.scan(walk));
+      for (DiffEntry entry : detector.compute()) {
+        boolean isRename =
+            entry.getChangeType() == DiffEntry.ChangeType.RENAME
+                || entry.getChangeType() == DiffEntry.ChangeType.COPY;
+        if (isRename && entry.getNewPath().equals(path)) return entry;
+      }
+    }
+    return null;
+  }
+
+  private RawText getText(ObjectId blob) throws IOException {
+    return BlobCache.getInstance().getText(this.repo, blob);
+  }
+
+  /** Read the stored origins of a version, or null if the version isn't indexed. */
+  private boolean contains(Key key) {
+    return this.memory != null ? this.memory.containsKey(key) : this.entries.containsKey(key);
+  }
+
+  private int[] read(Key key) throws IOException {
+    if (this.memory != null) return this.memory.get(key);
+
+    long[] entry = this.entries.get(key);
+    if (entry == null) return null;
+    if (entry[1] < 0) return UNRESOLVED;
+
+    long offset = entry[0];
+    int size = (int) entry[1];
+    int[] origins = new int[size * 2];
+
+    if (offset + size * 8L <= this.mapped.capacity()) {
+      for (int i = 0; i < origins.length; i++) {
+        origins[i] = this.mapped.getInt((int) offset + i * 4);
+      }
+      return origins;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size * 8);
+    while (buffer.hasRemaining()) {
+      if (this.data.read(buffer, offset + buffer.position()) < 0) throw new EOFException();
+    }
+    buffer.flip();
+    buffer.asIntBuffer().get(origins);
+    return origins;
+  }
+
+  /** Append the origins of a version to the index. Unresolved versions are stored without lines. */
+  private synchronized void store(Key key, int[] origins) throws IOException {
+    if (this.memory != null) {
+      this.memory.put(key, origins);
+      return;
+    }
+    if (this.entries.containsKey(key)) return;
+
+    ByteBuffer buffer = ByteBuffer.allocate(origins.length * 4);
+    buffer.asIntBuffer().put(origins);
+    long offset = this.dataSize;
+    while (buffer.hasRemaining()) this.data.write(buffer, offset + buffer.position());
+    this.dataSize += origins.length * 4;
+
+    byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+    this.commits.getId(key.ordinal).copyRawTo(raw, 0);
+    this.keys.write(raw);
+    this.keys.writeUTF(key.path);
+    int size = origins != UNRESOLVED ? origins.length / 2 : -1;
+    this.keys.writeLong(offset);
+    this.keys.writeInt(size);
+    this.keys.flush();
+
+    this.entries.put(key, new long[] {offset, size});
+  }
+
+  /** Read the keys, ignoring a partly written last key and commits that aren't indexed. */
+  private void readKeys(File keyFile) throws IOException {
+    if (!keyFile.isFile()) return;
+
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(keyFile)))) {
+      byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+      while (true) {
+        in.readFully(raw);
+        String path = in.readUTF();
+        long offset = in.readLong();
+        int size = in.readInt();
+
+        int ordinal = this.commits.ordinal(ObjectId.fromRaw(raw));
+        if (ordinal < 0 || offset + size * 8L > this.dataSize) continue;
+        this.entries.put(new Key(ordinal, path), new long[] {offset, size});
+      }
+    } catch (EOFException e) {
+      // The end of the keys.
+    }
+  }
+}
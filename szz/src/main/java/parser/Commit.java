@@ -44,6 +44,9 @@ public class Commit {
   public Map<String, DiffEntry.ChangeType> changeTypes;
   public Map<String, Collection<RevCommit>> fileAnnotations;
 
+  /** If the commit changed too many files to be diffed, so only its change types are known. */
+  public boolean summarized = false;
+
   /**
    * Constructor for a commit.
    *
@@ -25,25 +25,38 @@
 package parser;
 
 import data.Issues;
+import diff.DiffingLines.DiffLines;
 import graph.AnnotationMap;
 import graph.FileAnnotationGraph;
+import graph.LazySubGraphMap;
+import graph.SpillingAnnotationMap;
+import index.ChangedPathIndex;
+import index.CommitIndex;
+import index.IgnoredRevisions;
+import index.ProvenanceIndex;
 import java.io.*;
 import java.util.*;
 import java.util.stream.*;
 import org.eclipse.jgit.api.BlameCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.DiffAlgorithm;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
+import util.AdmissionController;
 import util.CommitUtil;
+import util.Configuration;
 import util.JSONUtil;
 
 /**
@@ -54,9 +67,23 @@ import util.JSONUtil;
  */
 public class GitParser {
 
+  /** Receives the graphs of a commit once all its files are traced. */
+  public interface GraphConsumer {
+    public void accept(String commit, List<FileAnnotationGraph> graphs)
+        throws IOException, GitAPIException;
+  }
+
   private CommitUtil util;
   private Repository repo;
+  private CommitIndex index;
+  private ProvenanceIndex provenance;
+  private boolean walkFileHistory;
+  private IgnoredRevisions ignored;
+  private boolean lazySubGraphs;
   private Issues issues;
+  private Map<String, Long> traceTimes = new LinkedHashMap<>();
+  private TraceBudget budget;
+  private Map<String, Map<String, String>> degraded = new LinkedHashMap<>();
 
   private String resultPath;
   private String DEFAULT_RES_PATH = "./results";
@@ -97,6 +124,28 @@ public class GitParser {
 
     this.util = new CommitUtil(this.repo, customContext);
 
+    /*
+     * The commit index is only built for the options that need it. Otherwise it's only used if
+     * another part of the run has opened it.
+     */
+    Configuration conf = Configuration.getInstance();
+    if (conf.getUseProvenanceIndex() || conf.getWalkFileHistory()) {
+      this.index = CommitIndex.getInstance(this.repo);
+    } else {
+      this.index = CommitIndex.peek(this.repo);
+    }
+    if (conf.getUseProvenanceIndex() && this.index != null) {
+      this.provenance = ProvenanceIndex.getInstance(this.repo);
+    }
+    this.walkFileHistory = conf.getWalkFileHistory();
+    this.ignored =
+        IgnoredRevisions.getInstance(
+            this.repo, conf.getIgnoreRevsFile(), conf.getWhitespaceFiles());
+    this.lazySubGraphs = conf.getLazySubGraphs();
+    this.budget =
+        new TraceBudget(
+            conf.getFixTimeBudget(), conf.getFileBlameBudget(), conf.getFileNodeBudget());
+
     this.depth = depth;
   }
 
@@ -112,6 +161,15 @@ public class GitParser {
     return this.issues;
   }
 
+  /**
+   * Return the time spent on tracing the files of each fix commit.
+   *
+   * @return the time in nanoseconds for each fix commit hash.
+   */
+  public Map<String, Long> getTraceTimes() {
+    return this.traceTimes;
+  }
+
   public void useLogger(Logger logger) {
     this.logger = logger;
   }
@@ -153,60 +211,79 @@ public class GitParser {
   }
 
   /**
-   * Traces a file change that have occured before a given commmit.
+   * Find the commit to start a blame from. The commits on the first parent chain that certainly
+   * didn't change the file are skipped, a blame would pass all lines through them anyway. The
+   * changed path filters are only used if they have been built for another part of the run.
    *
-   * @param filePath specifies which file to trace changes on.
-   * @param source the source commit from which the trace should start at.
+   * @param commit the commit that the blame should start from.
+   * @param filePath the file to blame.
+   * @return the commit to start the blame from.
    */
-  private FileAnnotationGraph traceFileChanges(String filePath, Commit source, int step)
-      throws IOException, GitAPIException {
+  private RevCommit getBlameStart(RevCommit commit, String filePath) throws IOException {
+    ChangedPathIndex changedPaths = ChangedPathIndex.peek(this.repo);
+    if (this.index == null || changedPaths == null) return commit;
 
-    if (step == 0) return null;
+    int ordinal = this.index.ordinal(commit);
+    int start = changedPaths.findLastChange(ordinal, filePath);
+    if (start < 0 || start == ordinal) return commit;
 
-    BlameCommand command = new BlameCommand(this.repo);
-
-    /*
-     * Save all line numbers for the source commits deletions.
-     */
-    List<Integer> delIndexes = null;
-    if (source.diffWithParent.containsKey(filePath))
-      delIndexes =
-          source
-              .diffWithParent
-              .get(filePath)
-              .deletions
-              .stream()
-              .map(s -> parseInt(s[0]))
-              .collect(Collectors.toList());
-    else return null;
+    return this.repo.parseCommit(this.index.getId(start));
+  }
 
-    /*
-     * Create a graph to store line mappings in.
-     */
-    FileAnnotationGraph graph = new FileAnnotationGraph();
-    graph.filePath = filePath;
-    graph.revisions = new LinkedList<>();
-    graph.mappings = new HashMap<>();
-    graph.sub_graphs = new HashMap<>();
+  /**
+   * Blame lines of a file. The history of the file is used if there is one, otherwise and on a
+   * miss the lines are blamed with JGit.
+   *
+   * @param start the commit to blame the file in.
+   * @param filePath the file to blame.
+   * @param lines the lines to blame.
+   * @param history the provenance of the file history, or null.
+   * @return the blamed lines grouped by the commits that introduced them, mapped to their line
+   *     numbers in those commits.
+   */
+  private Map<RevCommit, Map<Integer, Integer>> blameLines(
+      RevCommit start, String filePath, List<Integer> lines, ProvenanceIndex history)
+      throws IOException, GitAPIException {
+    Map<RevCommit, Map<Integer, Integer>> foundRevisions = new HashMap<>();
 
-    graph.revisions.add(ObjectId.toString(source.commit.toObjectId()));
+    int[] origins = history != null ? history.blame(start, filePath) : null;
+    if (origins != null) {
+      Map<Integer, RevCommit> originCommits = new HashMap<>();
+      try (RevWalk walk = new RevWalk(this.repo)) {
+        for (int index : lines) {
+          if (index < 0 || index >= origins.length / 2) continue;
+
+          int ordinal = origins[index * 2];
+          RevCommit foundRev = originCommits.get(ordinal);
+          if (foundRev == null) {
+            foundRev = walk.parseCommit(this.index.getId(ordinal));
+            originCommits.put(ordinal, foundRev);
+          }
 
-    int index = 0;
+          /*
+           * Insert with put, like the blame below, so that the iteration order is the same.
+           */
+          if (!foundRevisions.containsKey(foundRev)) {
+            foundRevisions.put(foundRev, new LinkedHashMap<>());
+          }
+          foundRevisions.get(foundRev).put(index, origins[index * 2 + 1]);
+        }
+      }
+      return lookThroughIgnored(foundRevisions, filePath, history);
+    }
 
-    RevCommit parent = source.commit.getParent(0);
-    command.setStartCommit(parent);
+    BlameCommand command = new BlameCommand(this.repo);
+    command.setStartCommit(getBlameStart(start, filePath));
     command.setFilePath(filePath);
 
     BlameResult found = command.call();
-    if (found == null) return graph;
-
-    Map<RevCommit, Map<Integer, Integer>> foundRevisions = new HashMap<>();
+    if (found == null) return foundRevisions;
 
     /*
      * Grab the blamed commits and get the line numbers.
      */
-    for (int i = 0; i < delIndexes.size(); i++) {
-      index = delIndexes.get(i);
+    for (int i = 0; i < lines.size(); i++) {
+      int index = lines.get(i);
       if (index == -1) continue;
       try {
         RevCommit foundRev = found.getSourceCommit(index);
@@ -224,6 +301,206 @@ public class GitParser {
       }
     }
 
+    return lookThroughIgnored(foundRevisions, filePath, history);
+  }
+
+  /**
+   * Blame the lines that were blamed on an ignored revision again, from the parent of the
+   * revision. The lines are mapped to the parent with a diff that ignores whitespace. Lines that
+   * the ignored revision added, or that can't be blamed in the parent, stay with the revision.
+   *
+   * @param foundRevisions the blamed lines of each revision.
+   * @param filePath the blamed file.
+   * @param history the provenance of the file history, or null.
+   * @return the blamed lines with the ignored revisions looked through.
+   */
+  private Map<RevCommit, Map<Integer, Integer>> lookThroughIgnored(
+      Map<RevCommit, Map<Integer, Integer>> foundRevisions,
+      String filePath,
+      ProvenanceIndex history)
+      throws IOException, GitAPIException {
+    if (this.ignored.isEmpty()) return foundRevisions;
+
+    boolean ignoredFound = false;
+    for (RevCommit rev : foundRevisions.keySet()) {
+      if (this.ignored.contains(rev) && rev.getParentCount() > 0) ignoredFound = true;
+    }
+    if (!ignoredFound) return foundRevisions;
+
+    Map<RevCommit, Map<Integer, Integer>> lookedThrough = new HashMap<>();
+    for (Map.Entry<RevCommit, Map<Integer, Integer>> rev : foundRevisions.entrySet()) {
+      Map<Integer, Integer> remaining = rev.getValue();
+      if (this.ignored.contains(rev.getKey()) && rev.getKey().getParentCount() > 0) {
+        remaining = blameParent(rev.getKey(), rev.getValue(), filePath, history, lookedThrough);
+      }
+      if (remaining.isEmpty()) continue;
+
+      if (!lookedThrough.containsKey(rev.getKey())) {
+        lookedThrough.put(rev.getKey(), new LinkedHashMap<>());
+      }
+      lookedThrough.get(rev.getKey()).putAll(remaining);
+    }
+    return lookedThrough;
+  }
+
+  /**
+   * Blame the lines of an ignored revision in its parent.
+   *
+   * @param rev the ignored revision.
+   * @param lines the lines that were blamed on the revision, mapped to their lines in it.
+   * @param filePath the blamed file.
+   * @param history the provenance of the file history, or null.
+   * @param lookedThrough the lines of each revision, that the lines blamed in the parent are
+   *     added to.
+   * @return the lines that stay with the ignored revision. All of them when the file is too large
+   *     to be diffed.
+   */
+  private Map<Integer, Integer> blameParent(
+      RevCommit rev,
+      Map<Integer, Integer> lines,
+      String filePath,
+      ProvenanceIndex history,
+      Map<RevCommit, Map<Integer, Integer>> lookedThrough)
+      throws IOException, GitAPIException {
+    RevCommit parent = this.repo.parseCommit(rev.getParent(0));
+    RevCommit current = this.repo.parseCommit(rev);
+
+    ObjectId oldBlob = this.util.getFileBlobId(parent.getTree(), filePath);
+    ObjectId newBlob = this.util.getFileBlobId(current.getTree(), filePath);
+    if (oldBlob == null || newBlob == null) return lines;
+
+    EditList edits;
+    try {
+      RawText oldText = new RawText(this.repo.open(oldBlob).getCachedBytes());
+      RawText newText = new RawText(this.repo.open(newBlob).getCachedBytes());
+      edits =
+          DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM)
+              .diff(RawTextComparator.WS_IGNORE_ALL, oldText, newText);
+    } catch (LargeObjectException e) {
+      return lines;
+    }
+
+    Map<Integer, List<Integer>> parentLines = new LinkedHashMap<>();
+    Map<Integer, Integer> remaining = new LinkedHashMap<>();
+    for (Map.Entry<Integer, Integer> line : lines.entrySet()) {
+      int parentLine = toParentLine(edits, line.getValue());
+      if (parentLine < 0) {
+        remaining.put(line.getKey(), line.getValue());
+        continue;
+      }
+
+      if (!parentLines.containsKey(parentLine)) parentLines.put(parentLine, new ArrayList<>());
+      parentLines.get(parentLine).add(line.getKey());
+    }
+    if (parentLines.isEmpty()) return remaining;
+
+    Map<RevCommit, Map<Integer, Integer>> found =
+        blameLines(parent, filePath, new ArrayList<>(parentLines.keySet()), history);
+    this.budget.addBlame();
+
+    Set<Integer> blamed = new HashSet<>();
+    for (Map.Entry<RevCommit, Map<Integer, Integer>> foundRev : found.entrySet()) {
+      if (!lookedThrough.containsKey(foundRev.getKey())) {
+        lookedThrough.put(foundRev.getKey(), new LinkedHashMap<>());
+      }
+      for (Map.Entry<Integer, Integer> line : foundRev.getValue().entrySet()) {
+        for (int index : parentLines.get(line.getKey())) {
+          lookedThrough.get(foundRev.getKey()).put(index, line.getValue());
+          blamed.add(index);
+        }
+      }
+    }
+
+    for (Map.Entry<Integer, Integer> line : lines.entrySet()) {
+      if (!blamed.contains(line.getKey())) remaining.put(line.getKey(), line.getValue());
+    }
+    return remaining;
+  }
+
+  /**
+   * Map a line of a revision to the line of its parent. A line within a changed section is mapped
+   * to the line at the same share of the section in the parent.
+   *
+   * @param edits the edits from the parent to the revision.
+   * @param line the line in the revision.
+   * @return the line in the parent, or -1 if the revision added the line.
+   */
+  private static int toParentLine(EditList edits, int line) {
+    int offset = 0;
+    for (Edit edit : edits) {
+      if (line < edit.getBeginB()) break;
+      if (line < edit.getEndB()) {
+        if (edit.getLengthA() == 0) return -1;
+        return edit.getBeginA()
+            + (int) ((long) (line - edit.getBeginB()) * edit.getLengthA() / edit.getLengthB());
+      }
+      offset = edit.getEndA() - edit.getEndB();
+    }
+    return line + offset;
+  }
+
+  /**
+   * Get the provenance index that a file is traced with. Unless the persistent index is used, a
+   * file that is traced from a single walk of its history gets its own index in memory. All depth
+   * levels of the trace are then answered from it.
+   *
+   * @return the index or null if the file should be blamed with JGit on every level.
+   */
+  private ProvenanceIndex getFileHistory() {
+    if (this.provenance != null) return this.provenance;
+    if (!sharesFileHistory()) return null;
+
+    return ProvenanceIndex.createInMemory(this.repo);
+  }
+
+  /**
+   * Check if the traced files get a provenance index that their depth levels share.
+   *
+   * @return true if the file history is shared.
+   */
+  private boolean sharesFileHistory() {
+    return this.provenance != null || (this.walkFileHistory && this.index != null);
+  }
+
+  /**
+   * Traces a file change that have occured before a given commmit.
+   *
+   * @param fix the fix commit that the trace belongs to.
+   * @param filePath specifies which file to trace changes on.
+   * @param source the source commit from which the trace should start at.
+   * @param history the provenance of the file history that is shared by all levels, or null.
+   */
+  private FileAnnotationGraph traceFileChanges(
+      String fix, String filePath, Commit source, int step, ProvenanceIndex history)
+      throws IOException, GitAPIException {
+
+    if (step == 0) return null;
+
+    /*
+     * Save all line numbers for the source commits deletions.
+     */
+    DiffLines diffLines = source.diffWithParent.get(filePath);
+    if (diffLines == null && source.summarized) diffLines = this.util.diffFile(source, filePath);
+    if (diffLines == null) return null;
+
+    List<Integer> delIndexes =
+        diffLines.deletions.stream().map(s -> parseInt(s[0])).collect(Collectors.toList());
+
+    /*
+     * Create a graph to store line mappings in.
+     */
+    FileAnnotationGraph graph = new FileAnnotationGraph();
+    graph.filePath = filePath;
+    graph.revisions = new LinkedList<>();
+    graph.mappings = new HashMap<>();
+
+    graph.revisions.add(ObjectId.toString(source.commit.toObjectId()));
+
+    RevCommit parent = source.commit.getParent(0);
+    Map<RevCommit, Map<Integer, Integer>> foundRevisions =
+        blameLines(parent, filePath, delIndexes, history);
+    this.budget.addBlame();
+
     /*
      * Save all mappings in the annotationgraph.
      */
@@ -244,22 +521,90 @@ public class GitParser {
       }
     }
 
+    this.budget.addNodes(graph.revisions.size());
+
+    if (this.lazySubGraphs) {
+      graph.sub_graphs = traceLazily(fix, filePath, foundRevisions, step, history);
+    } else {
+      graph.sub_graphs = traceSubGraphs(fix, graph, filePath, foundRevisions, step, history);
+    }
+
+    return graph;
+  }
+
+  /**
+   * Trace the subgraphs of a graph when they are first accessed. The trace is admitted and timed
+   * like the trace of the fix, but it isn't budgeted since the budgets are settled once the files
+   * of the fix are traced.
+   *
+   * @return the subgraphs that are traced on access.
+   */
+  private LazySubGraphMap traceLazily(
+      String fix,
+      String filePath,
+      Map<RevCommit, Map<Integer, Integer>> foundRevisions,
+      int step,
+      ProvenanceIndex history) {
+    return new LazySubGraphMap(
+        () -> {
+          AdmissionController admission = AdmissionController.getInstance();
+          admission.acquire();
+
+          long start = System.nanoTime();
+          try {
+            return traceSubGraphs(fix, null, filePath, foundRevisions, step, history);
+          } finally {
+            admission.release();
+            this.traceTimes.merge(fix, System.nanoTime() - start, Long::sum);
+          }
+        });
+  }
+
+  /**
+   * Trace the subgraphs of a graph, one for each revision that the lines were blamed on.
+   *
+   * @param fix the fix commit that the trace belongs to.
+   * @param graph the graph that is marked as truncated when the budget of the file is spent, or
+   *     null if the trace isn't budgeted.
+   * @param filePath the traced file.
+   * @param foundRevisions the blamed lines of the graph.
+   * @param step the number of levels that are left, including the level of the graph.
+   * @param history the provenance of the file history that is shared by all levels, or null.
+   * @return the subgraphs for each revision.
+   */
+  private Map<String, FileAnnotationGraph> traceSubGraphs(
+      String fix,
+      FileAnnotationGraph graph,
+      String filePath,
+      Map<RevCommit, Map<Integer, Integer>> foundRevisions,
+      int step,
+      ProvenanceIndex history)
+      throws IOException, GitAPIException {
+    Map<String, FileAnnotationGraph> subGraphs = new HashMap<>();
+
     /*
-     * Start building subgraphs.
+     * Start building subgraphs, for as long as there is budget left.
      */
     for (Map.Entry<RevCommit, Map<Integer, Integer>> rev : foundRevisions.entrySet()) {
+      if (graph != null && step > 1 && this.budget.getExhausted() != null) {
+        graph.truncated = true;
+        break;
+      }
+
       Commit subCommit = this.util.getCommitDiffingLines(rev.getKey());
-      FileAnnotationGraph subGraph = traceFileChanges(filePath, subCommit, step - 1);
+      FileAnnotationGraph subGraph =
+          traceFileChanges(fix, filePath, subCommit, step - 1, history);
 
       if (subGraph == null) break;
-      graph.sub_graphs.put(subCommit.getHashString(), subGraph);
+      subGraphs.put(subCommit.getHashString(), subGraph);
     }
 
-    return graph;
+    return subGraphs;
   }
 
   /**
    * With each revision, check all files and build their line mapping graphs for each changed line.
+   * The order that the files are traced in is described by {@link #traceCommits}.
    *
    * @param commits list of commits that should be traced.
    * @return the map containing annotation graphs for each file change by a commit.
@@ -267,19 +612,149 @@ public class GitParser {
   private AnnotationMap<String, List<FileAnnotationGraph>> buildLineMappingGraph(
       List<Commit> commits) throws IOException, GitAPIException {
 
-    AnnotationMap<String, List<FileAnnotationGraph>> fileGraph = new AnnotationMap<>();
-    for (Commit commit : commits) {
-      List<FileAnnotationGraph> graphs = new LinkedList<>();
-      for (Map.Entry<String, DiffEntry.ChangeType> file : commit.changeTypes.entrySet()) {
-        FileAnnotationGraph tracedCommits = traceFileChanges(file.getKey(), commit, this.depth);
+    /*
+     * Add the commits in order before they are traced, so that the map is iterated in the same
+     * order no matter when the graphs of a commit are done.
+     */
+    AnnotationMap<String, List<FileAnnotationGraph>> fileGraph = createAnnotationMap();
+    for (Commit commit : commits) fileGraph.put(commit.getHashString(), null);
+
+    traceCommits(commits, fileGraph::put, false);
+    return fileGraph;
+  }
+
+  /**
+   * Trace the files of all commits and hand over the graphs of each commit as soon as all its files
+   * are traced.
+   *
+   * <p>The commits are traced one at a time in the given order. When the history of the files is
+   * shared and the graphs are collected, the files are instead traced one path at a time, so that
+   * all commits that changed a file share the walk over its history. The commits of a path are
+   * then traced newest first since the history of the newest commit contains the history of the
+   * older ones. Streamed commits are always traced one at a time, so that only the graphs of a
+   * single commit are held until they are handed over.
+   *
+   * @param commits list of commits that should be traced.
+   * @param consumer the receiver of the graphs of each commit.
+   * @param streaming if the graphs of each commit are handed over to a finder.
+   */
+  private void traceCommits(List<Commit> commits, GraphConsumer consumer, boolean streaming)
+      throws IOException, GitAPIException {
 
-        graphs.add(tracedCommits);
+    List<Map.Entry<String, List<Commit>>> groups = new ArrayList<>();
+    if (streaming || !sharesFileHistory()) {
+      for (Commit commit : commits) {
+        for (String path : commit.changeTypes.keySet()) {
+          groups.add(new AbstractMap.SimpleEntry<>(path, Collections.singletonList(commit)));
+        }
       }
+    } else {
+      Map<String, List<Commit>> commitsByPath = new LinkedHashMap<>();
+      for (Commit commit : commits) {
+        for (String path : commit.changeTypes.keySet()) {
+          if (!commitsByPath.containsKey(path)) commitsByPath.put(path, new ArrayList<>());
+          commitsByPath.get(path).add(commit);
+        }
+      }
+      for (List<Commit> pathCommits : commitsByPath.values()) {
+        pathCommits.sort(
+            Comparator.comparingInt((Commit c) -> this.index.ordinal(c.commit)).reversed());
+      }
+      groups.addAll(commitsByPath.entrySet());
+    }
+
+    Map<Commit, Map<String, FileAnnotationGraph>> tracedFiles = new IdentityHashMap<>();
+    for (Commit commit : commits) tracedFiles.put(commit, new HashMap<>());
+    for (Commit commit : commits) addTracedCommit(consumer, tracedFiles, commit);
 
-      fileGraph.put(commit.getHashString(), graphs);
+    double estimated = 0;
+    if (this.issues != null) {
+      for (Commit commit : commits) estimated += this.issues.getCost(commit.getHashString());
     }
+    double traced = 0;
+    double nextProgress = 0.1;
+    long started = System.nanoTime();
+
+    for (Map.Entry<String, List<Commit>> path : groups) {
+      ProvenanceIndex history = getFileHistory();
+      for (Commit commit : path.getValue()) {
+        AdmissionController admission = AdmissionController.getInstance();
+        admission.acquire();
+
+        long start = System.nanoTime();
+        FileAnnotationGraph tracedCommits = null;
+        try {
+          this.budget.startFile(this.traceTimes.getOrDefault(commit.getHashString(), 0L));
+          tracedCommits =
+              traceFileChanges(commit.getHashString(), path.getKey(), commit, this.depth, history);
+        } finally {
+          admission.release();
+        }
+        this.traceTimes.merge(commit.getHashString(), System.nanoTime() - start, Long::sum);
 
-    return fileGraph;
+        if (this.budget.getReason() != null) {
+          if (!this.degraded.containsKey(commit.getHashString()))
+            this.degraded.put(commit.getHashString(), new LinkedHashMap<>());
+          this.degraded.get(commit.getHashString()).put(path.getKey(), this.budget.getReason());
+        }
+
+        tracedFiles.get(commit).put(path.getKey(), tracedCommits);
+        addTracedCommit(consumer, tracedFiles, commit);
+
+        /*
+         * Log the time that is left when the work has been scheduled by cost.
+         */
+        if (estimated > 0) {
+          traced += this.issues.getCost(commit.getHashString()) / commit.changeTypes.size();
+          if (traced >= nextProgress * estimated) {
+            double seconds = (System.nanoTime() - started) / 1e9;
+            this.logger.info(
+                String.format(
+                    "Traced %.0f%% of the estimated work in %.1f seconds, about %.1f seconds left.",
+                    100 * traced / estimated, seconds, seconds * (estimated - traced) / traced));
+            while (traced >= nextProgress * estimated) nextProgress += 0.1;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Create the map that the graphs are stored in. If only a limited number of commits should have
+   * their graphs in memory, the rest are spilled to disk.
+   *
+   * @return the map to store the graphs in.
+   */
+  private AnnotationMap<String, List<FileAnnotationGraph>> createAnnotationMap()
+      throws IOException {
+    int maxResident = Configuration.getInstance().getResidentGraphs();
+    if (maxResident <= 0) return new AnnotationMap<>();
+
+    return new SpillingAnnotationMap(maxResident, this.resultPath);
+  }
+
+  /**
+   * Hand over the graphs of a commit once all its files are traced.
+   *
+   * @param consumer the receiver of the graphs.
+   * @param tracedFiles the graphs of the commits that are being traced.
+   * @param commit the commit to check.
+   */
+  private void addTracedCommit(
+      GraphConsumer consumer,
+      Map<Commit, Map<String, FileAnnotationGraph>> tracedFiles,
+      Commit commit)
+      throws IOException, GitAPIException {
+    Map<String, FileAnnotationGraph> traced = tracedFiles.get(commit);
+    if (traced == null || traced.size() < commit.changeTypes.size()) return;
+
+    List<FileAnnotationGraph> graphs = new LinkedList<>();
+    for (Map.Entry<String, DiffEntry.ChangeType> file : commit.changeTypes.entrySet()) {
+      graphs.add(traced.get(file.getKey()));
+    }
+
+    tracedFiles.remove(commit);
+    consumer.accept(commit.getHashString(), graphs);
   }
 
   /**
@@ -315,14 +790,64 @@ public class GitParser {
     this.logger.info("Building line mapping graph.");
     AnnotationMap<String, List<FileAnnotationGraph>> mapping = buildLineMappingGraph(parsedCommits);
 
-    this.logger.info("Saving results to file");
-    mapping.saveToJSON(this.resultPath);
+    /*
+     * Lazy subgraphs are saved once the bug finder has traced the ones it needs.
+     */
+    if (!this.lazySubGraphs) {
+      this.logger.info("Saving results to file");
+      mapping.saveToJSON(this.resultPath);
+    }
+
+    saveDegradedCommits();
 
     return mapping;
   }
 
   /**
-   * Use this method to use already found big fixing changes.
+   * Trace the changes of the commits like {@link #annotateCommits(Set)}, but hand over the graphs
+   * of each commit as soon as all its files are traced instead of collecting them. The found
+   * commits are saved to file, but the graphs are not.
+   *
+   * @param commits a set containing references to commits.
+   * @param consumer the receiver of the graphs of each commit.
+   */
+  public void annotateCommits(Set<RevCommit> commits, GraphConsumer consumer)
+      throws IOException, GitAPIException {
+    this.logger.info("Parsing difflines for all found commits.");
+    List<Commit> parsedCommits = this.util.getDiffingLines(commits);
+
+    this.logger.info("Saving parsed commits to file");
+    JSONUtil.saveFoundCommits(parsedCommits, this.resultPath);
+
+    this.logger.info("Tracing the commits one at a time.");
+    traceCommits(parsedCommits, consumer, true);
+
+    saveDegradedCommits();
+  }
+
+  /** Save the commits that were only summarized, since they changed too many files. */
+  public void saveSummarizedCommits() {
+    Map<String, Integer> summarized = this.util.getSummarizedCommits();
+    if (summarized.isEmpty()) return;
+
+    this.logger.info(
+        String.format(
+            "Summarized %d commits that changed too many files to be diffed.",
+            summarized.size()));
+    JSONUtil.saveSummarizedCommits(summarized, this.resultPath);
+  }
+
+  private void saveDegradedCommits() {
+    if (this.degraded.isEmpty()) return;
+
+    this.logger.info(
+        String.format("Truncated the traces of %d fix commits.", this.degraded.size()));
+    JSONUtil.saveDegradedCommits(this.degraded, this.resultPath);
+  }
+
+  /**
+   * Use this method to use already found big fixing changes. The commits are returned in the
+   * order of the file.
    *
    * @param path the path to the json file where the changes are stored.
    */
@@ -331,26 +856,49 @@ public class GitParser {
 
     this.issues = new Issues();
 
-    JSONParser commitParser = new JSONParser();
     try {
-      JSONObject object = (JSONObject) commitParser.parse(new FileReader(path));
+      Map<String, Object> object = JSONUtil.readOrderedObject(path);
 
-      this.issues.revisions = new HashSet<>();
+      this.issues.revisions = new LinkedHashSet<>();
       this.issues.dates = new HashMap<>();
 
-      for (Object issue : object.keySet()) {
-        Map<String, String> issueInfo = (Map<String, String>) object.get(issue);
+      for (String issue : object.keySet()) {
+        Map<String, Object> issueInfo = JSONUtil.asObject(object.get(issue));
 
-        String rev = issueInfo.get("hash");
-        RevCommit revCommit = this.repo.parseCommit(this.repo.resolve(rev));
+        String rev = (String) issueInfo.get("hash");
+        RevCommit revCommit = null;
+        if (this.index != null) {
+          int ordinal = this.index.resolve(rev);
+          if (ordinal < 0) {
+            this.logger.warn(String.format("Couldn't find the commit %s, skipping it.", rev));
+            continue;
+          }
+          revCommit = this.repo.parseCommit(this.index.getId(ordinal));
+        } else {
+          revCommit = this.repo.parseCommit(this.repo.resolve(rev));
+        }
 
         Map<String, String> dates = new HashMap<>();
 
-        dates.put("resolutiondate", issueInfo.get("resolutiondate"));
-        dates.put("commitdate", issueInfo.get("commitdate"));
-        dates.put("creationdate", issueInfo.get("creationdate"));
+        dates.put("resolutiondate", (String) issueInfo.get("resolutiondate"));
+        dates.put("commitdate", (String) issueInfo.get("commitdate"));
+        dates.put("creationdate", (String) issueInfo.get("creationdate"));
 
-        this.issues.dates.put(rev, dates);
+        this.issues.dates.put(revCommit.getName(), dates);
+
+        /*
+         * Issues that reference the same commit keep their own dates, while the commit is only
+         * traced once.
+         */
+        if (!this.issues.fixedIssues.containsKey(revCommit.getName())) {
+          this.issues.fixedIssues.put(revCommit.getName(), new LinkedHashMap<>());
+        }
+        this.issues.fixedIssues.get(revCommit.getName()).put(issue, dates);
+
+        if (issueInfo.get("cost") instanceof Number) {
+          this.issues.costs.put(
+              revCommit.getName(), ((Number) issueInfo.get("cost")).doubleValue());
+        }
         this.issues.revisions.add(revCommit);
       }
 
@@ -360,6 +908,17 @@ public class GitParser {
 
     this.logger.info(String.format("Found %d number of commits.", this.issues.revisions.size()));
 
+    int linked = 0;
+    for (Map<String, Map<String, String>> fixed : this.issues.fixedIssues.values()) {
+      linked += fixed.size();
+    }
+    if (linked > this.issues.fixedIssues.size()) {
+      this.logger.info(
+          String.format(
+              "%d issues reference %d commits, each commit is traced once.",
+              linked, this.issues.fixedIssues.size()));
+    }
+
     if (this.issues.revisions.size() == 0) return Collections.emptySet();
     return this.issues.revisions;
   }
@@ -28,13 +28,18 @@ import graph.AnnotationMap;
 import graph.FileAnnotationGraph;
 import heuristics.BugFinderFactory;
 import heuristics.BugIntroducerFinder;
+import heuristics.CompositeBugIntroducerFinder;
+import heuristics.SimpleBugIntroducerFinder;
+import heuristics.StreamingBugIntroducerFinder;
 import java.io.*;
 import java.util.*;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.json.simple.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.Configuration;
+import util.JSONStreamWriter;
 import util.JSONUtil;
 
 /**
@@ -92,6 +97,12 @@ public class GitParserThread extends Thread {
     logger.info("Started process...");
     try {
       Set<RevCommit> commits = this.parser.readBugFixCommits(this.issues);
+
+      if (Configuration.getInstance().getStreamFinder()) {
+        streamCommits(commits);
+        return;
+      }
+
       logger.info("Checking each commits diff...");
 
       AnnotationMap<String, List<FileAnnotationGraph>> graphs =
@@ -104,8 +115,18 @@ public class GitParserThread extends Thread {
 
       bugIntroducers = finder.findBugIntroducingCommits(graphs);
 
+      if (Configuration.getInstance().getLazySubGraphs()) {
+        logger.info("Saving the traced subgraphs to file...");
+        graphs.saveToJSON(this.parser.getResultPath());
+      }
+
       logger.info("Saving found bug introducing commits...");
       JSONUtil.saveBugIntroducingCommits(bugIntroducers, this.parser.getResultPath());
+      saveFinderResults(finder);
+      saveIssueResults(finder);
+
+      if (graphs instanceof Closeable) ((Closeable) graphs).close();
+      this.parser.saveSummarizedCommits();
 
     } catch (IOException e) {
       e.printStackTrace();
@@ -113,4 +134,78 @@ public class GitParserThread extends Thread {
       e.printStackTrace();
     }
   }
+
+  /**
+   * Trace the commits and find their bug introducers one fix at a time. The graphs and the pairs
+   * of a fix are written as soon as the fix is traced, and the graphs are then let go.
+   *
+   * @param commits the fix commits.
+   */
+  private void streamCommits(Set<RevCommit> commits) throws IOException, GitAPIException {
+    BugIntroducerFinder finder =
+        BugFinderFactory.getFinder(this.parser.getRepository(), this.parser.getIssues());
+    StreamingBugIntroducerFinder streamingFinder = (StreamingBugIntroducerFinder) finder;
+
+    String resultPath = this.parser.getResultPath();
+    try (JSONStreamWriter annotations =
+            new JSONStreamWriter(resultPath + "/" + "annotations.json", true);
+        JSONStreamWriter pairs =
+            new JSONStreamWriter(resultPath + "/" + "fix_and_introducers_pairs.json", false)) {
+
+      logger.info("Tracing and finding bug introducing commits one fix at a time...");
+      this.parser.annotateCommits(
+          commits,
+          (fix, graphs) -> {
+            for (String[] pair : streamingFinder.accept(fix, graphs)) pairs.add(toJSON(pair));
+
+            JSONArray jFileObject = new JSONArray();
+            for (FileAnnotationGraph graph : graphs) jFileObject.add(graph.getGraphJSON());
+            annotations.put(fix, jFileObject);
+          });
+
+      logger.info("Checking the remaining bug introducing commits against all fixes...");
+      for (String[] pair : streamingFinder.finish()) pairs.add(toJSON(pair));
+    }
+    saveFinderResults(finder);
+    saveIssueResults(finder);
+    this.parser.saveSummarizedCommits();
+  }
+
+  /**
+   * Save the pairs of each bugfinder when several bugfinders have been run.
+   *
+   * @param finder the bugfinder of the thread.
+   */
+  private void saveFinderResults(BugIntroducerFinder finder) {
+    if (!(finder instanceof CompositeBugIntroducerFinder)) return;
+
+    for (Map.Entry<String, List<String[]>> result :
+        ((CompositeBugIntroducerFinder) finder).getResults().entrySet()) {
+      JSONUtil.saveBugIntroducingCommits(
+          result.getValue(), this.parser.getResultPath(), result.getKey());
+    }
+  }
+
+  /**
+   * Save the pairs of each issue, if the bugfinder keeps them. Only the primary finder is used
+   * when several bugfinders have been run.
+   *
+   * @param finder the bugfinder of the thread.
+   */
+  private void saveIssueResults(BugIntroducerFinder finder) {
+    if (finder instanceof CompositeBugIntroducerFinder) {
+      finder = ((CompositeBugIntroducerFinder) finder).getFinders().values().iterator().next();
+    }
+    if (!(finder instanceof SimpleBugIntroducerFinder)) return;
+
+    JSONUtil.saveIssueIntroducingCommits(
+        ((SimpleBugIntroducerFinder) finder).getIssuePairs(), this.parser.getResultPath());
+  }
+
+  private static JSONArray toJSON(String[] pair) {
+    JSONArray jPair = new JSONArray();
+    jPair.add(pair[0]);
+    jPair.add(pair[1]);
+    return jPair;
+  }
 }
@@ -0,0 +1,407 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package parser;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+
+/**
+ * Links issues fetched from Jira to the commits that fixes them and produces the issue list that
+ * the parser expects. It is a replacement for the git_log_to_array.py and find_bug_fixes.py
+ * scripts.
+ *
+ * <p>Each commit is rendered like the output of git show --quiet --date=iso and is matched against
+ * the gitlog pattern with the issue number inserted at {nbr}, exactly like find_bug_fixes.py. To
+ * avoid matching every issue against every commit, the issue numbers are looked up from the digits
+ * that occur in each commit and only those issues are matched.
+ *
+ * @author Oscar Svensson
+ */
+public class IssueLinker {
+
+  private static final String NBR = "{nbr}";
+
+  private static final Pattern FIX_PATTERN = Pattern.compile("[Ff]ix");
+  private static final Pattern SELECTOR_PATTERN = Pattern.compile("[Mm]erge|[Cc]herry|[Nn]oting");
+
+  private Repository repo;
+  private String gitlogPattern;
+
+  private Logger logger;
+
+  /*
+   * Used to find all digit sequences in a commit.
+   */
+  private SimpleCommitSearcher numberSearcher;
+
+  private Map<String, Pattern> issuePatterns = new ConcurrentHashMap<>();
+  private Map<String, Pattern> referencePatterns = new ConcurrentHashMap<>();
+
+  /** A commit that matches an issue. */
+  private static class Match {
+    public String hash;
+    public String commitDate;
+    public boolean selectable;
+  }
+
+  /**
+   * Constructor
+   *
+   * @param repo the repository that contains the fixes.
+   * @param gitlogPattern the pattern used to match a fix, with {nbr} as the issue number.
+   * @param logger the logger to report progress to.
+   */
+  public IssueLinker(Repository repo, String gitlogPattern, Logger logger) {
+    this.repo = repo;
+    this.gitlogPattern = gitlogPattern;
+    this.logger = logger;
+
+    this.numberSearcher = new SimpleCommitSearcher(repo, Arrays.asList("[0-9]+"));
+  }
+
+  /**
+   * Read all issues from the pages that was fetched from Jira. Each page is streamed so that only
+   * the key and the dates of each issue are kept.
+   *
+   * @param issueDirectory a directory containing the res*.json pages.
+   * @return a map with the issue key and its creation and resolution dates.
+   */
+  public Map<String, Map<String, String>> readIssues(String issueDirectory)
+      throws IOException, ParseException {
+    Map<String, Map<String, String>> issues = new LinkedHashMap<>();
+
+    File[] pages = new File(issueDirectory).listFiles((dir, name) -> name.endsWith(".json"));
+    if (pages == null) {
+      throw new FileNotFoundException(issueDirectory + " is not a directory!");
+    }
+    Arrays.sort(pages);
+
+    JSONParser parser = new JSONParser();
+    for (File page : pages) {
+      try (Reader reader = new BufferedReader(new FileReader(page))) {
+        parser.parse(reader, new IssuePageHandler(issues));
+      }
+    }
+    return issues;
+  }
+
+  /**
+   * Link each issue to the commit that fixed it.
+   *
+   * @param issues the issues read with {@link #readIssues(String)}.
+   * @return the issues that could be linked to a commit, with the hash and the commit date added.
+   */
+  public Map<String, Map<String, String>> linkIssues(Map<String, Map<String, String>> issues)
+      throws IOException, GitAPIException {
+    Map<String, List<String>> issuesByNumber = new HashMap<>();
+    for (String key : issues.keySet()) {
+      String[] parts = key.split("-");
+      if (parts.length < 2) continue;
+      issuesByNumber.computeIfAbsent(parts[1], n -> new ArrayList<>()).add(key);
+    }
+
+    List<RevCommit> commits = new ArrayList<>();
+    for (RevCommit commit : new Git(this.repo).log().call()) {
+      commits.add(commit);
+    }
+    this.logger.info(
+        String.format("Matching %d issues to %d commits.", issues.size(), commits.size()));
+
+    List<Map<String, Match>> matches =
+        commits
+            .parallelStream()
+            .map(commit -> matchCommit(commit, issuesByNumber))
+            .collect(Collectors.toList());
+
+    /*
+     * Collect the matches for each issue in log order.
+     */
+    Map<String, List<Match>> matchesPerIssue = new HashMap<>();
+    for (Map<String, Match> commitMatches : matches) {
+      for (Map.Entry<String, Match> match : commitMatches.entrySet()) {
+        matchesPerIssue
+            .computeIfAbsent(match.getKey(), k -> new ArrayList<>())
+            .add(match.getValue());
+      }
+    }
+
+    Map<String, Map<String, String>> linked = new LinkedHashMap<>();
+    for (Map.Entry<String, Map<String, String>> issue : issues.entrySet()) {
+      List<Match> issueMatches = matchesPerIssue.get(issue.getKey());
+      if (issueMatches == null) continue;
+
+      Match selected = selectCommit(issueMatches);
+
+      Map<String, String> info = new LinkedHashMap<>(issue.getValue());
+      info.put("hash", selected.hash);
+      info.put("commitdate", selected.commitDate);
+      linked.put(issue.getKey(), info);
+    }
+
+    this.logger.info(String.format("Total issues: %d", issues.size()));
+    this.logger.info(String.format("Issues matched to a bugfix: %d", linked.size()));
+
+    return linked;
+  }
+
+  /**
+   * Build the issue list and save it to a file.
+   *
+   * @param issueDirectory a directory containing the res*.json pages.
+   * @param path the path to the issue list that will be written.
+   */
+  public void saveIssueList(String issueDirectory, String path)
+      throws IOException, GitAPIException, ParseException {
+    Map<String, Map<String, String>> linked = linkIssues(readIssues(issueDirectory));
+
+    try (FileWriter writer = new FileWriter(path)) {
+      writer.write(JSONObject.toJSONString(linked));
+      writer.flush();
+    }
+  }
+
+  /**
+   * Pick the first commit that isn't a merge, a cherry pick or a noting. If all are, pick the
+   * newest one.
+   */
+  private Match selectCommit(List<Match> matches) {
+    for (Match match : matches) {
+      if (match.selectable) return match;
+    }
+    return matches.get(0);
+  }
+
+  /**
+   * Find all issues that a commit matches.
+   *
+   * @param commit the commit to match.
+   * @param issuesByNumber the issue keys for each issue number.
+   * @return the matched issues.
+   */
+  private Map<String, Match> matchCommit(
+      RevCommit commit, Map<String, List<String>> issuesByNumber) {
+    String text = showCommit(commit);
+    Map<String, Match> matched = new HashMap<>();
+
+    for (String number : candidateNumbers(text, issuesByNumber)) {
+      if (!issuePattern(number).matcher(text).find()) continue;
+      if (referencePattern(number).matcher(text).find() && !FIX_PATTERN.matcher(text).find()) {
+        continue;
+      }
+
+      Match match = new Match();
+      match.hash = ObjectId.toString(commit.getId());
+      match.commitDate = formatDate(commit.getAuthorIdent());
+      match.selectable = !SELECTOR_PATTERN.matcher(text).find();
+
+      for (String key : issuesByNumber.get(number)) {
+        matched.put(key, match);
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * A commit can only match an issue if the issue number occurs somewhere in the commit. Collect
+   * all numbers that occur as part of a digit sequence and that belong to an issue.
+   */
+  private Set<String> candidateNumbers(String text, Map<String, List<String>> issuesByNumber) {
+    Set<String> candidates = new HashSet<>();
+    for (String digits : this.numberSearcher.findIssueReferences(text)) {
+      for (int start = 0; start < digits.length(); start++) {
+        for (int end = start + 1; end <= digits.length(); end++) {
+          String number = digits.substring(start, end);
+          if (issuesByNumber.containsKey(number)) candidates.add(number);
+        }
+      }
+    }
+    return candidates;
+  }
+
+  private Pattern issuePattern(String number) {
+    return issuePatterns.computeIfAbsent(
+        number, n -> Pattern.compile(this.gitlogPattern.replace(NBR, n)));
+  }
+
+  private Pattern referencePattern(String number) {
+    return referencePatterns.computeIfAbsent(number, n -> Pattern.compile("#" + n + "\\D"));
+  }
+
+  /**
+   * Render a commit like git show --quiet --date=iso.
+   *
+   * @param commit the commit to render.
+   * @return the rendered commit.
+   */
+  private String showCommit(RevCommit commit) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("commit ").append(ObjectId.toString(commit.getId())).append('\n');
+
+    if (commit.getParentCount() > 1) {
+      sb.append("Merge:");
+      try (ObjectReader reader = this.repo.newObjectReader()) {
+        for (RevCommit parent : commit.getParents()) {
+          sb.append(' ').append(reader.abbreviate(parent).name());
+        }
+      } catch (IOException e) {
+        for (RevCommit parent : commit.getParents()) {
+          sb.append(' ').append(parent.abbreviate(7).name());
+        }
+      }
+      sb.append('\n');
+    }
+
+    PersonIdent author = commit.getAuthorIdent();
+    sb.append("Author: ")
+        .append(author.getName())
+        .append(" <")
+        .append(author.getEmailAddress())
+        .append(">\n");
+    sb.append("Date:   ").append(formatDate(author)).append("\n\n");
+
+    boolean leading = true;
+    for (String line : commit.getFullMessage().split("\n")) {
+      if (leading && line.trim().isEmpty()) continue;
+      leading = false;
+      sb.append("    ").append(line).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private String formatDate(PersonIdent ident) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+    format.setTimeZone(ident.getTimeZone());
+    return format.format(ident.getWhen());
+  }
+
+  /**
+   * Streams a Jira search result page and only keeps the key, the creation date and the
+   * resolution date of each issue.
+   */
+  private static class IssuePageHandler implements ContentHandler {
+    private Map<String, Map<String, String>> issues;
+
+    /*
+     * The keys of the entries that the parser currently is in.
+     */
+    private Deque<String> path = new ArrayDeque<>();
+    private int depth = 0;
+
+    private String key;
+    private String created;
+    private String resolved;
+
+    IssuePageHandler(Map<String, Map<String, String>> issues) {
+      this.issues = issues;
+    }
+
+    public void startJSON() {}
+
+    public void endJSON() {}
+
+    public boolean startObject() {
+      depth++;
+      /*
+       * An issue is an object at depth 2, inside the issues array.
+       */
+      if (depth == 2 && "issues".equals(path.peekLast())) {
+        key = null;
+        created = null;
+        resolved = null;
+      }
+      return true;
+    }
+
+    public boolean endObject() {
+      if (depth == 2 && "issues".equals(path.peekLast()) && key != null) {
+        Map<String, String> dates = new LinkedHashMap<>();
+        dates.put("creationdate", toDate(created));
+        dates.put("resolutiondate", toDate(resolved));
+        issues.put(key, dates);
+      }
+      depth--;
+      return true;
+    }
+
+    public boolean startObjectEntry(String entry) {
+      path.addLast(entry);
+      return true;
+    }
+
+    public boolean endObjectEntry() {
+      path.removeLast();
+      return true;
+    }
+
+    public boolean startArray() {
+      return true;
+    }
+
+    public boolean endArray() {
+      return true;
+    }
+
+    public boolean primitive(Object value) {
+      if (value == null) return true;
+      String entry = path.peekLast();
+
+      if (depth == 2 && "key".equals(entry)) {
+        key = value.toString();
+      } else if (depth == 3 && isInFields()) {
+        if ("created".equals(entry)) created = value.toString();
+        else if ("resolutiondate".equals(entry)) resolved = value.toString();
+      }
+      return true;
+    }
+
+    private boolean isInFields() {
+      Iterator<String> keys = path.descendingIterator();
+      keys.next();
+      return keys.hasNext() && "fields".equals(keys.next());
+    }
+
+    /** Convert a Jira date to the format that the parser expects. */
+    private static String toDate(String date) {
+      if (date == null) return null;
+      return date.replace("T", " ").replace(".000", " ");
+    }
+  }
+}
@@ -24,17 +24,25 @@
 
 package parser;
 
+import index.CommitIndex;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import util.Configuration;
+import util.KeywordAutomaton;
 
 /**
  * Simple class which does a search in a git repository for potential bug fixing commits.
@@ -43,16 +51,41 @@ import util.Configuration;
  */
 public class SimpleCommitSearcher {
 
+  public static final String DEFAULT_BUG_PATTERN = "JENKINS\\-[0-9]+";
+
+  /** The number of commit ordinals that are walked by the same worker. */
+  private static final int RANGE_SIZE = 1024;
+
   private Git git;
   private Repository repo;
 
-  public List<Matcher> bugpatterns;
+  public List<Pattern> bugpatterns;
+
+  /*
+   * The literal prefixes of the bugpatterns, and the bugpatterns without one. A bugpattern can
+   * only match a message that contains its prefix.
+   */
+  private KeywordAutomaton prefixes;
+  private List<Integer> prefixPatterns;
+  private BitSet unprefixedPatterns;
+
+  /** A commit that references issues. */
+  private static class Reference {
+    private int ordinal;
+    private RevCommit commit;
+    private Set<String> issues;
+
+    Reference(int ordinal, RevCommit commit, Set<String> issues) {
+      this.ordinal = ordinal;
+      this.commit = commit;
+      this.issues = issues;
+    }
+  }
 
   /**
    * Constructor using a path to a local repository.
    */
   public SimpleCommitSearcher(String repoPath) throws IOException, GitAPIException {
-    Configuration conf = Configuration.getInstance();
     FileRepositoryBuilder builder = new FileRepositoryBuilder();
     builder.setMustExist(true);
 
@@ -61,28 +94,100 @@ public class SimpleCommitSearcher {
     this.repo = builder.build();
     this.git = new Git(repo);
 
-    bugpatterns = Arrays.asList(compile("JENKINS\\-[0-9]"));
+    setBugPatterns(Arrays.asList(DEFAULT_BUG_PATTERN));
   }
 
   /**
    * Constructor using a repository.
    */
   public SimpleCommitSearcher(Repository repo) {
+    this(repo, Arrays.asList(DEFAULT_BUG_PATTERN));
+  }
+
+  /**
+   * Constructor using a repository and a list of bugpatterns.
+   *
+   * @param repo the repository to search in.
+   * @param patterns regex like strings. Each match is seen as a reference to an issue.
+   */
+  public SimpleCommitSearcher(Repository repo, List<String> patterns) {
     this.repo = repo;
     this.git = new Git(repo);
 
-    bugpatterns = Arrays.asList(compile("JENKINS\\-[0-9]"));
+    setBugPatterns(patterns);
+  }
+
+  /**
+   * Set the patterns that are used to match bugs. Each pattern is matched on its own, so its groups
+   * and backreferences keep their meaning and the matches of one pattern don't hide those of
+   * another. A message is first scanned once for the literal prefixes of all patterns, and only
+   * the patterns whose prefix occurs in it, or that don't have one, are matched against it.
+   *
+   * @param patterns regex like strings.
+   */
+  public void setBugPatterns(List<String> patterns) {
+    this.bugpatterns = new ArrayList<>();
+    this.prefixPatterns = new ArrayList<>();
+    this.unprefixedPatterns = new BitSet();
+
+    List<String> literals = new ArrayList<>();
+    for (String pattern : patterns) {
+      this.bugpatterns.add(compile(pattern));
+
+      String prefix = getLiteralPrefix(pattern);
+      if (prefix.isEmpty()) {
+        this.unprefixedPatterns.set(this.bugpatterns.size() - 1);
+      } else {
+        literals.add(prefix);
+        this.prefixPatterns.add(this.bugpatterns.size() - 1);
+      }
+    }
+    this.prefixes = new KeywordAutomaton(literals);
+  }
+
+  /**
+   * Find the literal characters that every match of a pattern starts with. The prefix ends at the
+   * first character that isn't a plain or escaped literal, and a literal that is followed by a
+   * quantifier that allows it to be left out isn't part of it.
+   *
+   * @param pattern a regex like string.
+   * @return the prefix, or an empty string if the pattern doesn't have one.
+   */
+  private static String getLiteralPrefix(String pattern) {
+    /*
+     * A top level alternation could start with anything, and alternations aren't worth telling
+     * apart by their level.
+     */
+    if (pattern.indexOf('|') >= 0) return "";
+
+    StringBuilder prefix = new StringBuilder();
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '\\') {
+        if (i + 1 >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1))) break;
+        c = pattern.charAt(i + 1);
+        i += 2;
+      } else if (".[](){}*+?^$".indexOf(c) < 0) {
+        i++;
+      } else {
+        break;
+      }
+
+      if (i < pattern.length() && "?*{".indexOf(pattern.charAt(i)) >= 0) break;
+      prefix.append(c);
+    }
+    return prefix.toString();
   }
 
   /**
    * Compile a regex pattern.
    *
    * @param pattern a regex like string.
-   * @return a matcher object that can be used to match bugs.
+   * @return a pattern that can be used to match bugs.
    */
-  private Matcher compile(String pattern) {
-    Pattern p = Pattern.compile(pattern, Pattern.DOTALL);
-    return p.matcher("");
+  private Pattern compile(String pattern) {
+    return Pattern.compile(pattern, Pattern.DOTALL);
   }
 
   /**
@@ -110,20 +215,142 @@ public class SimpleCommitSearcher {
    * @return a set containing commits that matches the bugpatterns.
    */
   public Set<RevCommit> filterOnBugPatterns() throws IOException, GitAPIException {
-    Iterable<RevCommit> logs = this.git.log().call();
-    Set<RevCommit> foundCommits = new HashSet<>();
+    return new LinkedHashSet<>(findIssueReferences().keySet());
+  }
 
-    int number = 0;
-    for (Matcher bug_matcher : bugpatterns) {
-      for (RevCommit recv : logs) {
-        bug_matcher.reset(recv.getFullMessage());
+  /**
+   * Walk the history once and find all issues that each commit references.
+   *
+   * <p>With the commit index, the commits that are reachable from HEAD are split into ranges of
+   * ordinals. The ranges are walked in parallel, each with a walk of its own, and the commits are
+   * then ordered newest first by commit time. Without the index the log is walked sequentially and
+   * only the messages are matched in parallel.
+   *
+   * @return a map with the commits that matches any bugpattern and the issues that they reference.
+   */
+  public Map<RevCommit, Set<String>> findIssueReferences() throws IOException, GitAPIException {
+    CommitIndex index = CommitIndex.getInstance(this.repo);
+    ObjectId head = this.repo.resolve(Constants.HEAD);
+    if (index == null || head == null || index.ordinal(head) < 0) return findLogReferences();
+
+    int headOrdinal = index.ordinal(head);
+
+    /*
+     * A parent always has a lower ordinal than its children, so the reachable commits are found
+     * in a single pass down from HEAD.
+     */
+    BitSet reachable = new BitSet(headOrdinal + 1);
+    reachable.set(headOrdinal);
+    for (int ordinal = headOrdinal; ordinal >= 0; ordinal--) {
+      if (!reachable.get(ordinal)) continue;
+      for (int parent : index.getParents(ordinal)) reachable.set(parent);
+    }
 
-        if (bug_matcher.find()) {
-          foundCommits.add(recv);
-        }
+    List<Reference> references;
+    try {
+      references =
+          IntStream.range(0, headOrdinal / RANGE_SIZE + 1)
+              .parallel()
+              .mapToObj(
+                  range ->
+                      walkRange(
+                          index,
+                          reachable,
+                          range * RANGE_SIZE,
+                          Math.min((range + 1) * RANGE_SIZE, headOrdinal + 1)))
+              .flatMap(List::stream)
+              .collect(Collectors.toList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    references.sort(
+        Comparator.comparingLong((Reference reference) -> index.getCommitTime(reference.ordinal))
+            .thenComparingInt(reference -> reference.ordinal)
+            .reversed());
+
+    Map<RevCommit, Set<String>> foundCommits = new LinkedHashMap<>();
+    for (Reference reference : references) foundCommits.put(reference.commit, reference.issues);
+    return foundCommits;
+  }
+
+  /**
+   * Find the issues that the reachable commits in a range of ordinals reference.
+   *
+   * @param index the commit index.
+   * @param reachable the ordinals of the commits that are reachable from HEAD.
+   * @param from the first ordinal of the range.
+   * @param to the ordinal after the range.
+   * @return the commits in the range that reference any issue.
+   */
+  private List<Reference> walkRange(CommitIndex index, BitSet reachable, int from, int to) {
+    List<Reference> references = new ArrayList<>();
+    try (RevWalk walk = new RevWalk(this.repo)) {
+      for (int ordinal = reachable.nextSetBit(from);
+          ordinal >= 0 && ordinal < to;
+          ordinal = reachable.nextSetBit(ordinal + 1)) {
+        RevCommit commit = walk.parseCommit(index.getId(ordinal));
+
+        Set<String> issues = findIssueReferences(commit.getFullMessage());
+        if (!issues.isEmpty()) references.add(new Reference(ordinal, commit, issues));
       }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return references;
+  }
+
+  /**
+   * Walk the log sequentially and match the messages in parallel.
+   *
+   * @return a map, in log order, with the commits that matches any bugpattern and the issues that
+   *     they reference.
+   */
+  private Map<RevCommit, Set<String>> findLogReferences() throws IOException, GitAPIException {
+    List<RevCommit> commits = new ArrayList<>();
+    for (RevCommit recv : this.git.log().call()) {
+      commits.add(recv);
+    }
+
+    List<Set<String>> references =
+        commits
+            .parallelStream()
+            .map(commit -> findIssueReferences(commit.getFullMessage()))
+            .collect(Collectors.toList());
+
+    Map<RevCommit, Set<String>> foundCommits = new LinkedHashMap<>();
+    for (int i = 0; i < commits.size(); i++) {
+      if (!references.get(i).isEmpty()) foundCommits.put(commits.get(i), references.get(i));
     }
 
     return foundCommits;
   }
+
+  /**
+   * Find all issues that a message references.
+   *
+   * @param message the message of a commit.
+   * @return a set containing the matched issues, in the order they occur. Matches that start at the
+   *     same position are in the order of the patterns.
+   */
+  public Set<String> findIssueReferences(String message) {
+    BitSet candidates = (BitSet) this.unprefixedPatterns.clone();
+    BitSet found = this.prefixes.find(message);
+    for (int prefix = found.nextSetBit(0); prefix >= 0; prefix = found.nextSetBit(prefix + 1)) {
+      candidates.set(this.prefixPatterns.get(prefix));
+    }
+
+    List<MatchResult> matches = new ArrayList<>();
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      Matcher matcher = this.bugpatterns.get(i).matcher(message);
+      while (matcher.find()) {
+        if (!matcher.group().isEmpty()) matches.add(matcher.toMatchResult());
+      }
+    }
+    if (candidates.cardinality() > 1) matches.sort(Comparator.comparingInt(MatchResult::start));
+
+    Set<String> issues = new LinkedHashSet<>();
+    for (MatchResult match : matches) issues.add(match.group());
+    return issues;
+  }
 }
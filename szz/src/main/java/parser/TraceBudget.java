@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package parser;
+
+/**
+ * The budget of tracing the changes of a file. The time is shared by all files of a fix commit,
+ * while the blames and the graph nodes are counted per file. A limit of zero or less means that
+ * there is no limit.
+ *
+ * <p>The budget is checked between the depth levels of a trace, so a single blame is never
+ * interrupted.
+ *
+ * @author Oscar Svensson
+ */
+public class TraceBudget {
+
+  public static final String TIME = "time", BLAMES = "blames", NODES = "nodes";
+
+  private long maxNanos;
+  private int maxBlames;
+  private int maxNodes;
+
+  private long deadline;
+  private int blames;
+  private int nodes;
+  private String reason;
+
+  public TraceBudget(double maxSeconds, int maxBlames, int maxNodes) {
+    this.maxNanos = (long) (maxSeconds * 1e9);
+    this.maxBlames = maxBlames;
+    this.maxNodes = maxNodes;
+  }
+
+  /**
+   * Start tracing a new file.
+   *
+   * @param spentNanos the time already spent on the other files of the same fix commit.
+   */
+  public void startFile(long spentNanos) {
+    this.deadline = System.nanoTime() + maxNanos - spentNanos;
+    this.blames = 0;
+    this.nodes = 0;
+    this.reason = null;
+  }
+
+  /** Count a blame of the file. */
+  public void addBlame() {
+    this.blames++;
+  }
+
+  /**
+   * Count the nodes of a graph.
+   *
+   * @param count the number of revisions in the graph.
+   */
+  public void addNodes(int count) {
+    this.nodes += count;
+  }
+
+  /**
+   * Check if any part of the budget is spent.
+   *
+   * @return the part of the budget that is spent, or null if there is budget left.
+   */
+  public String getExhausted() {
+    if (reason != null) return reason;
+
+    if (maxNanos > 0 && System.nanoTime() >= deadline) reason = TIME;
+    else if (maxBlames > 0 && blames >= maxBlames) reason = BLAMES;
+    else if (maxNodes > 0 && nodes >= maxNodes) reason = NODES;
+    return reason;
+  }
+
+  /**
+   * Return the part of the budget that truncated the trace of the current file.
+   *
+   * @return the part of the budget, or null if the trace wasn't truncated.
+   */
+  public String getReason() {
+    return this.reason;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package util;
+
+import java.lang.management.*;
+import java.util.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits how many threads that trace files at the same time, based on the pressure on the heap.
+ *
+ * <p>The heap is sampled in the background. If the heap that is left after a garbage collection is
+ * above the limit, or if too much time is spent on collecting garbage, the number of threads that
+ * may trace is halved. When the pressure is low again, one more thread is let in at a time. A
+ * thread that isn't let in waits until another thread is done with its file.
+ *
+ * <p>Without a heap limit every thread is always let in.
+ *
+ * @author Oscar Svensson
+ */
+public class AdmissionController {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+  private static final long SAMPLE_INTERVAL = 500;
+  private static final double MAX_GC_OVERHEAD = 0.25;
+  private static final double LOW_WATERMARK = 0.8;
+
+  private static AdmissionController instance = null;
+
+  private double heapLimit;
+  private int maxPermits;
+  private int permits;
+  private int active = 0;
+
+  private int lowestPermits;
+  private int throttles = 0;
+
+  private long lastGcTime = 0;
+  private long lastSample = 0;
+
+  /**
+   * Constructor
+   *
+   * @param heapLimit the share of the maximum heap to stay below, or zero for no limit.
+   * @param maxPermits the maximum number of threads that may trace at the same time.
+   */
+  public AdmissionController(double heapLimit, int maxPermits) {
+    this.heapLimit = heapLimit;
+    this.maxPermits = Math.max(1, maxPermits);
+    this.permits = this.maxPermits;
+    this.lowestPermits = this.maxPermits;
+
+    if (heapLimit > 0) {
+      Timer timer = new Timer("admission", true);
+      timer.schedule(
+          new TimerTask() {
+            public void run() {
+              sample();
+            }
+          },
+          SAMPLE_INTERVAL,
+          SAMPLE_INTERVAL);
+    }
+  }
+
+  /** Get the controller that is shared by the whole run. */
+  public static synchronized AdmissionController getInstance() {
+    if (instance == null) {
+      Configuration conf = Configuration.getInstance();
+      instance = new AdmissionController(conf.getHeapLimit(), conf.getNumberOfCPUS());
+    }
+    return instance;
+  }
+
+  /** Wait until the calling thread may trace. */
+  public synchronized void acquire() {
+    while (active >= permits) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    active++;
+  }
+
+  /** Let another thread trace. */
+  public synchronized void release() {
+    active--;
+    notifyAll();
+  }
+
+  public synchronized int getLowestPermits() {
+    return this.lowestPermits;
+  }
+
+  public synchronized int getThrottles() {
+    return this.throttles;
+  }
+
+  /** Sample the heap and the garbage collectors and adjust the number of permits. */
+  private void sample() {
+    long now = System.currentTimeMillis();
+    long gcTime = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcTime += Math.max(0, gc.getCollectionTime());
+    }
+
+    double overhead = 0;
+    if (lastSample > 0) overhead = (double) (gcTime - lastGcTime) / Math.max(1, now - lastSample);
+    lastGcTime = gcTime;
+    lastSample = now;
+
+    double occupancy = getOccupancy();
+
+    synchronized (this) {
+      if (occupancy > heapLimit || overhead > MAX_GC_OVERHEAD) {
+        if (permits > 1) {
+          permits = Math.max(1, permits / 2);
+          lowestPermits = Math.min(lowestPermits, permits);
+          throttles++;
+          logger.info(
+              String.format(
+                  "Heap at %.0f%% and %.0f%% of the time in GC, letting %d threads trace.",
+                  100 * occupancy, 100 * overhead, permits));
+        }
+      } else if (occupancy < heapLimit * LOW_WATERMARK && permits < maxPermits) {
+        permits++;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Return the share of the maximum heap that is used. The usage after the last garbage
+   * collection is used when it's known, since the current usage also counts garbage.
+   */
+  private static double getOccupancy() {
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+
+    long used = 0;
+    boolean collected = false;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() != MemoryType.HEAP) continue;
+
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (usage != null && usage.getUsed() > 0) {
+        used += usage.getUsed();
+        collected = true;
+      }
+    }
+
+    if (!collected) used = heap.getUsed();
+    return (double) used / max;
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * A content addressed cache of file lines that is shared by the whole run.
+ *
+ * <p>It holds two caches. One that maps a tree and a path to the blob of the file and one that
+ * maps a blob to its lines. A blob is loaded once into a single buffer and its lines are decoded
+ * from slices of that buffer when they are accessed. The blob cache is bounded by the total size
+ * of the cached blobs. Blobs above the big file threshold are streamed and never cached.
+ *
+ * @author Oscar Svensson
+ */
+public class BlobCache {
+
+  private static final int MAX_CACHED_PATHS = 100000;
+  private static final ObjectId MISSING = ObjectId.zeroId();
+
+  private static BlobCache instance = null;
+
+  private long maxBytes;
+  private long cachedBytes = 0;
+
+  private LinkedHashMap<String, ObjectId> paths;
+  private LinkedHashMap<ObjectId, FileLines> blobs;
+
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+
+  /**
+   * The lines of a blob. The lines are slices of the loaded blob and are only decoded when
+   * accessed. They are split like {@link java.io.BufferedReader#readLine}, on a line feed, a
+   * carriage return or both.
+   */
+  public static class FileLines extends AbstractList<String> {
+    private byte[] content;
+    private int[] bounds;
+    private RawText text;
+
+    FileLines(byte[] content) {
+      this.content = content;
+
+      int[] bounds = new int[16];
+      int lines = 0;
+      int start = 0;
+      int i = 0;
+      while (i < content.length) {
+        byte c = content[i];
+        if (c != '\n' && c != '\r') {
+          i++;
+          continue;
+        }
+
+        if (2 * lines + 2 > bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        bounds[2 * lines] = start;
+        bounds[2 * lines + 1] = i;
+        lines++;
+
+        if (c == '\r' && i + 1 < content.length && content[i + 1] == '\n') i++;
+        start = ++i;
+      }
+      if (start < content.length) {
+        if (2 * lines + 2 > bounds.length) bounds = Arrays.copyOf(bounds, bounds.length + 2);
+        bounds[2 * lines] = start;
+        bounds[2 * lines + 1] = content.length;
+        lines++;
+      }
+      this.bounds = Arrays.copyOf(bounds, 2 * lines);
+    }
+
+    @Override
+    public String get(int index) {
+      if (index < 0 || index >= size()) {
+        throw new IndexOutOfBoundsException(Integer.toString(index));
+      }
+
+      int start = bounds[2 * index];
+      return new String(content, start, bounds[2 * index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+      return bounds.length / 2;
+    }
+
+    /** Get the blob as a text that is split into lines by the diff algorithms of JGit. */
+    public synchronized RawText getRawText() {
+      if (text == null) text = new RawText(content);
+      return text;
+    }
+
+    private long getSize() {
+      return content.length;
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxBytes the maximum number of bytes of blobs that can be cached at the same time.
+   */
+  public BlobCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.paths =
+        new LinkedHashMap<String, ObjectId>(16, 0.75f, true) {
+          protected boolean removeEldestEntry(Map.Entry<String, ObjectId> eldest) {
+            return size() > MAX_CACHED_PATHS;
+          }
+        };
+    this.blobs = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /** Get the cache that is shared by the whole run. */
+  public static synchronized BlobCache getInstance() {
+    if (instance == null) {
+      instance = new BlobCache(Configuration.getInstance().getBlobCacheSize() * 1024L * 1024L);
+    }
+    return instance;
+  }
+
+  /**
+   * Find the blob of a file in a tree.
+   *
+   * @param repo the repository that contains the tree.
+   * @param tree the id of the tree.
+   * @param path the path to the file.
+   * @return the blob id or null if the file doesn't exist in the tree.
+   */
+  public ObjectId getBlobId(Repository repo, ObjectId tree, String path) throws IOException {
+    String key = tree.name() + ":" + path;
+
+    synchronized (this) {
+      ObjectId cached = paths.get(key);
+      if (cached != null) {
+        hits.incrementAndGet();
+        return cached == MISSING ? null : cached;
+      }
+    }
+    misses.incrementAndGet();
+
+    ObjectId blob = null;
+    try (TreeWalk walk = TreeWalk.forPath(repo, path, tree)) {
+      if (walk != null) blob = walk.getObjectId(0);
+    }
+    if (blob != null && blob.equals(ObjectId.zeroId())) blob = null;
+
+    synchronized (this) {
+      paths.put(key, blob == null ? MISSING : blob.copy());
+    }
+    return blob;
+  }
+
+  /**
+   * Get the lines of a blob. Blobs that are too large to be loaded into a single buffer are
+   * streamed instead and aren't cached.
+   *
+   * @param repo the repository that contains the blob.
+   * @param blob the id of the blob.
+   * @return the lines of the blob.
+   */
+  public List<String> getLines(Repository repo, ObjectId blob) throws IOException {
+    FileLines lines = load(repo, blob);
+    if (lines != null) return lines;
+
+    try (InputStream stream = repo.open(blob).openStream()) {
+      return IOUtils.readLines(stream, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Get the text of a blob, as it is split into lines by the diff algorithms of JGit.
+   *
+   * @param repo the repository that contains the blob.
+   * @param blob the id of the blob.
+   * @return the text of the blob.
+   * @throws LargeObjectException if the blob is too large to be loaded into a single buffer.
+   */
+  public RawText getText(Repository repo, ObjectId blob) throws IOException {
+    FileLines lines = load(repo, blob);
+    if (lines == null) throw new LargeObjectException(blob.copy());
+    return lines.getRawText();
+  }
+
+  /** Load the lines of a blob through the cache, or return null if the blob is too large. */
+  private FileLines load(Repository repo, ObjectId blob) throws IOException {
+    synchronized (this) {
+      FileLines cached = blobs.get(blob);
+      if (cached != null) {
+        hits.incrementAndGet();
+        return cached;
+      }
+    }
+    misses.incrementAndGet();
+
+    FileLines lines;
+    try {
+      lines = new FileLines(repo.open(blob).getCachedBytes(PackConfig.DEFAULT_BIG_FILE_THRESHOLD));
+    } catch (LargeObjectException e) {
+      return null;
+    }
+
+    put(blob.copy(), lines);
+    return lines;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private synchronized void put(ObjectId blob, FileLines lines) {
+    if (lines.getSize() > maxBytes) return;
+
+    FileLines previous = blobs.put(blob, lines);
+    if (previous != null) cachedBytes -= previous.getSize();
+    cachedBytes += lines.getSize();
+
+    Iterator<Map.Entry<ObjectId, FileLines>> entries = blobs.entrySet().iterator();
+    while (cachedBytes > maxBytes && entries.hasNext()) {
+      cachedBytes -= entries.next().getValue().getSize();
+      entries.remove();
+    }
+  }
+}
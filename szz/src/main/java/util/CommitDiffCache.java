@@ -0,0 +1,245 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package util;
+
+import diff.DiffingLines.DiffLines;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import parser.Commit;
+
+/**
+ * A cache of parsed commit diffs that is shared between all parsers and finders in a run.
+ *
+ * <p>A diff is identified by the commit and the diff configuration, that is the custom context and
+ * if the line text is omitted. Concurrent requests for the same diff wait for the first one, so
+ * each diff is computed at most once as long as it isn't evicted. The cache is bounded by the
+ * total number of cached diff lines and evicts the least recently used diffs.
+ *
+ * <p>The cached diffs can't be modified. Each request gets its own commit around the cached diff,
+ * with the RevCommit of the caller, since a RevCommit belongs to the walk that parsed it.
+ *
+ * @author Oscar Svensson
+ */
+public class CommitDiffCache {
+
+  private static CommitDiffCache instance = null;
+
+  private long maxLines;
+  private long cachedLines = 0;
+
+  private LinkedHashMap<Key, Diff> cache;
+  private ConcurrentHashMap<Key, CompletableFuture<Diff>> inFlight;
+
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+
+  /** Computes a diff on a cache miss. */
+  public interface Loader {
+    public Commit load() throws IOException, GitAPIException;
+  }
+
+  /** The identity of a diff. */
+  private static class Key {
+    private ObjectId commit;
+    private int customContext;
+    private boolean omitLineText;
+
+    Key(ObjectId commit, int customContext, boolean omitLineText) {
+      this.commit = commit.copy();
+      this.customContext = customContext;
+      this.omitLineText = omitLineText;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return commit.equals(other.commit)
+          && customContext == other.customContext
+          && omitLineText == other.omitLineText;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * commit.hashCode() + customContext) + (omitLineText ? 1 : 0);
+    }
+  }
+
+  /** The diff of a commit with its first parent, shared by all threads. */
+  private static class Diff {
+    private Map<String, DiffLines> diffWithParent;
+    private Map<String, DiffEntry.ChangeType> changeTypes;
+    private boolean summarized;
+    private long lines = 1;
+
+    /** Take over the diff of a loaded commit, that nothing else has a reference to yet. */
+    Diff(Commit commit) {
+      for (DiffLines diffLines : commit.diffWithParent.values()) {
+        diffLines.insertions = Collections.unmodifiableList(diffLines.insertions);
+        diffLines.deletions = Collections.unmodifiableList(diffLines.deletions);
+        lines += 1 + diffLines.insertions.size() + diffLines.deletions.size();
+      }
+
+      /*
+       * Copy into linked maps, so that the files are iterated in the same order as in the commit.
+       */
+      this.diffWithParent = Collections.unmodifiableMap(new LinkedHashMap<>(commit.diffWithParent));
+      this.changeTypes = Collections.unmodifiableMap(new LinkedHashMap<>(commit.changeTypes));
+      this.summarized = commit.summarized;
+    }
+
+    /** Create a commit around the diff. */
+    Commit toCommit(RevCommit revc) {
+      Commit commit = new Commit(revc);
+      commit.diffWithParent = this.diffWithParent;
+      commit.changeTypes = this.changeTypes;
+      commit.summarized = this.summarized;
+      return commit;
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxLines the maximum number of diff lines that can be cached at the same time.
+   */
+  public CommitDiffCache(long maxLines) {
+    this.maxLines = maxLines;
+    this.cache = new LinkedHashMap<>(16, 0.75f, true);
+    this.inFlight = new ConcurrentHashMap<>();
+  }
+
+  /** Get the cache that is shared by the whole run. */
+  public static synchronized CommitDiffCache getInstance() {
+    if (instance == null) {
+      instance = new CommitDiffCache(Configuration.getInstance().getDiffCacheSize());
+    }
+    return instance;
+  }
+
+  /**
+   * Get a diff from the cache or compute it with the loader. The maps of the returned commit
+   * can't be modified.
+   *
+   * @param commit the commit that the diff belongs to, parsed by the caller.
+   * @param customContext the number of context lines of the diff.
+   * @param omitLineText if the diff omits the line text.
+   * @param loader computes the diff if it isn't cached.
+   * @return the diff, in a commit of its own.
+   */
+  public Commit get(RevCommit commit, int customContext, boolean omitLineText, Loader loader)
+      throws IOException, GitAPIException {
+    Diff diff = get(new Key(commit, customContext, omitLineText), loader);
+    return diff != null ? diff.toCommit(commit) : null;
+  }
+
+  private Diff get(Key key, Loader loader) throws IOException, GitAPIException {
+    synchronized (this) {
+      Diff cached = cache.get(key);
+      if (cached != null) {
+        hits.incrementAndGet();
+        return cached;
+      }
+    }
+
+    CompletableFuture<Diff> future = new CompletableFuture<>();
+    CompletableFuture<Diff> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      hits.incrementAndGet();
+      return await(existing);
+    }
+
+    try {
+      /*
+       * Another thread could have finished the same diff in between.
+       */
+      synchronized (this) {
+        Diff cached = cache.get(key);
+        if (cached != null) {
+          hits.incrementAndGet();
+          future.complete(cached);
+          return cached;
+        }
+      }
+
+      misses.incrementAndGet();
+      Commit loaded = loader.load();
+      Diff diff = loaded != null ? new Diff(loaded) : null;
+      if (diff != null) put(key, diff);
+      future.complete(diff);
+      return diff;
+    } catch (IOException | GitAPIException | RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key);
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private synchronized void put(Key key, Diff diff) {
+    if (diff.lines > maxLines) return;
+
+    Diff previous = cache.put(key, diff);
+    if (previous != null) cachedLines -= previous.lines;
+    cachedLines += diff.lines;
+
+    Iterator<Map.Entry<Key, Diff>> entries = cache.entrySet().iterator();
+    while (cachedLines > maxLines && entries.hasNext()) {
+      Map.Entry<Key, Diff> eldest = entries.next();
+      cachedLines -= eldest.getValue().lines;
+      entries.remove();
+    }
+  }
+
+  private static Diff await(CompletableFuture<Diff> future)
+      throws IOException, GitAPIException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof GitAPIException) throw (GitAPIException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new IOException(cause);
+    }
+  }
+}
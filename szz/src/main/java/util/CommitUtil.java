@@ -29,14 +29,13 @@ import diff.DiffingLines;
 import diff.DiffingLines.DiffLines;
 import java.io.*;
 import java.util.*;
-import org.apache.commons.io.IOUtils;
+import java.util.stream.Collectors;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.patch.FileHeader;
@@ -45,7 +44,6 @@ import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.AbstractTreeIterator;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
-import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
 import org.eclipse.jgit.util.io.DisabledOutputStream;
 import parser.Commit;
@@ -62,6 +60,13 @@ public class CommitUtil {
   private Repository repo;
 
   private int customContext;
+  private boolean omitLineText;
+  private int hugeCommitFiles;
+
+  /** The number of files that are diffed at the same time in a commit with many changed files. */
+  private static final int DIFF_BATCH = 64;
+
+  private Map<String, Integer> summarized = new LinkedHashMap<>();
 
   public CommitUtil(Repository repo, int customContext) {
     this.repo = repo;
@@ -69,6 +74,8 @@ public class CommitUtil {
     this.git = new Git(repo);
 
     this.customContext = customContext;
+    this.omitLineText = Configuration.getInstance().getOmitLineText();
+    this.hugeCommitFiles = Configuration.getInstance().getHugeCommitFiles();
   }
 
   /**
@@ -79,32 +86,48 @@ public class CommitUtil {
    * @return a list containing all lines in the file.
    */
   public List<String> getFileLines(RevTree tree, String path) throws IOException, GitAPIException {
+    ObjectId oId = getFileBlobId(tree, path);
 
-    try (TreeWalk walk = new TreeWalk(this.repo)) {
-      walk.addTree(tree);
-      walk.setRecursive(true);
-      walk.setFilter(PathFilter.create(path));
-
-      walk.next();
-      ObjectId oId = walk.getObjectId(0);
-
-      if (oId == ObjectId.zeroId()) {
-        return new LinkedList<>();
-      }
+    if (oId == null) {
+      return new LinkedList<>();
+    }
 
-      ObjectLoader loader = this.repo.open(oId);
+    return getFileLines(oId);
+  }
 
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      loader.copyTo(stream);
+  /**
+   * Method to find the blob that contains a file in a specific revision.
+   *
+   * @param tree the id of the revision tree that contains the file.
+   * @param path the path that leads to the file in the tree.
+   * @return the id of the blob or null if the file doesn't exist in the revision.
+   */
+  public ObjectId getFileBlobId(ObjectId tree, String path) throws IOException, GitAPIException {
+    try {
+      return BlobCache.getInstance().getBlobId(this.repo, tree, path);
+    } catch (Exception e) {
+      return null;
+    }
+  }
 
-      return IOUtils.readLines(new ByteArrayInputStream(stream.toByteArray()), "UTF-8");
+  /**
+   * Method to read the lines of a blob. The lines are shared through the {@link BlobCache} and
+   * must not be modified.
+   *
+   * @param blob the id of the blob.
+   * @return a list containing all lines in the blob.
+   */
+  public List<String> getFileLines(ObjectId blob) throws IOException, GitAPIException {
+    try {
+      return BlobCache.getInstance().getLines(this.repo, blob);
     } catch (Exception e) {
       return new LinkedList<>();
     }
   }
 
   /**
-   * Find all lines that diffs with a commits parent commit.
+   * Find all lines that diffs with a commits parent commit. Summarized commits are kept even though
+   * their lines are only diffed when they are traced.
    *
    * @param commits a set of unique commits.
    */
@@ -116,7 +139,7 @@ public class CommitUtil {
 
       if (commit == null) continue;
 
-      if (!commit.diffWithParent.isEmpty()) parsedCommits.add(commit);
+      if (!commit.diffWithParent.isEmpty() || commit.summarized) parsedCommits.add(commit);
     }
 
     return parsedCommits;
@@ -145,11 +168,12 @@ public class CommitUtil {
    * @return an EditList containing all Edits.
    */
   public EditList getDiffEditList(DiffEntry entry) throws IOException, GitAPIException {
-    DiffFormatter form = new DiffFormatter(DisabledOutputStream.INSTANCE);
-    form.setRepository(this.git.getRepository());
+    try (DiffFormatter form = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+      form.setRepository(this.git.getRepository());
 
-    FileHeader fh = form.toFileHeader(entry);
-    return fh.toEditList();
+      FileHeader fh = form.toFileHeader(entry);
+      return fh.toEditList();
+    }
   }
 
   /**
@@ -173,7 +197,8 @@ public class CommitUtil {
   }
 
   /**
-   * Parse the lines a commit recently made changes to compared to its parent.
+   * Parse the lines a commit recently made changes to compared to its parent. Diffs against the
+   * first parent are shared through the {@link CommitDiffCache}.
    *
    * @param revc the current revision.
    * @return a commit object containing all differences.
@@ -183,8 +208,43 @@ public class CommitUtil {
 
     if (revc.getId() == revc.zeroId()) return null;
 
+    Commit commit;
+    if (revother.length > 0) {
+      commit = computeCommitDiffingLines(revc, revother[0]);
+    } else {
+      commit =
+          CommitDiffCache.getInstance()
+              .get(
+                  revc,
+                  this.customContext,
+                  this.omitLineText,
+                  () -> computeCommitDiffingLines(revc, null));
+    }
+
+    /*
+     * The summarization is kept with the diff, so it's recorded by every caller that gets the
+     * diff and not only by the one that computed it.
+     */
+    if (commit != null && commit.summarized) {
+      synchronized (this.summarized) {
+        this.summarized.put(commit.getHashString(), commit.changeTypes.size());
+      }
+    }
+    return commit;
+  }
+
+  /**
+   * Parse the lines that differ between a commit and another commit.
+   *
+   * @param revc the current revision.
+   * @param revother the revision to compare with. Defaults to the first parent if null.
+   * @return a commit object containing all differences.
+   */
+  private Commit computeCommitDiffingLines(RevCommit revc, RevCommit revother)
+      throws IOException, GitAPIException {
+
     RevCommit parent = null;
-    if (revother.length > 0) parent = revother[0];
+    if (revother != null) parent = revother;
     else if (revc.getParents().length > 0) parent = revc.getParent(0);
     else parent = revc;
 
@@ -194,15 +254,110 @@ public class CommitUtil {
 
     Commit commit = new Commit(revc);
 
-    for (DiffEntry entry : diffEntries) {
-      DiffLines changedLines = diffFile(entry);
+    /*
+     * A commit that changed too many files, like a merge or an imported library, is only
+     * summarized by the files it changed. Its lines are diffed a file at a time when needed.
+     */
+    if (this.hugeCommitFiles > 0 && diffEntries.size() > this.hugeCommitFiles) {
+      for (DiffEntry entry : diffEntries) {
+        commit.changeTypes.put(entry.getNewPath(), entry.getChangeType());
+      }
+      commit.summarized = true;
+      return commit;
+    }
 
-      commit.diffWithParent.put(entry.getNewPath(), changedLines);
-      commit.changeTypes.put(entry.getNewPath(), entry.getChangeType());
+    /*
+     * The files are diffed in batches, in parallel when there are many of them, so that only the
+     * contents of a batch are loaded at the same time.
+     */
+    boolean parallel = diffEntries.size() > DIFF_BATCH;
+    for (int start = 0; start < diffEntries.size(); start += DIFF_BATCH) {
+      List<DiffEntry> batch =
+          diffEntries.subList(start, Math.min(start + DIFF_BATCH, diffEntries.size()));
+      List<DiffLines> changedLines = diffFiles(batch, parallel);
+
+      for (int i = 0; i < batch.size(); i++) {
+        DiffEntry entry = batch.get(i);
+        commit.diffWithParent.put(entry.getNewPath(), changedLines.get(i));
+        commit.changeTypes.put(entry.getNewPath(), entry.getChangeType());
+      }
     }
     return commit;
   }
 
+  /**
+   * Diff a batch of files.
+   *
+   * @param entries the changed files.
+   * @param parallel if the files should be diffed in parallel.
+   * @return the diffing lines of each file, in the order of the entries.
+   */
+  private List<DiffLines> diffFiles(List<DiffEntry> entries, boolean parallel)
+      throws IOException, GitAPIException {
+    if (!parallel) {
+      List<DiffLines> changedLines = new ArrayList<>();
+      for (DiffEntry entry : entries) changedLines.add(diffFile(entry));
+      return changedLines;
+    }
+
+    try {
+      return entries
+          .parallelStream()
+          .map(
+              entry -> {
+                try {
+                  return diffFile(entry);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                } catch (GitAPIException e) {
+                  throw new IllegalStateException(e);
+                }
+              })
+          .collect(Collectors.toList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (IllegalStateException e) {
+      if (e.getCause() instanceof GitAPIException) throw (GitAPIException) e.getCause();
+      throw e;
+    }
+  }
+
+  /**
+   * Diff a single file of a commit against its first parent. Used for the files of summarized
+   * commits.
+   *
+   * @param commit the commit.
+   * @param path the path of the file in the commit.
+   * @return the diffing lines or null if the commit didn't change the file.
+   */
+  public DiffLines diffFile(Commit commit, String path) throws IOException, GitAPIException {
+    if (!commit.changeTypes.containsKey(path) || commit.commit.getParentCount() == 0) return null;
+
+    List<DiffEntry> entries =
+        this.git
+            .diff()
+            .setOldTree(getCanonicalTreeParser(commit.commit.getParent(0)))
+            .setNewTree(getCanonicalTreeParser(commit.commit))
+            .setPathFilter(PathFilter.create(path))
+            .call();
+
+    for (DiffEntry entry : entries) {
+      if (entry.getNewPath().equals(path)) return diffFile(entry);
+    }
+    return null;
+  }
+
+  /**
+   * Return the commits that were only summarized, since they changed too many files.
+   *
+   * @return the number of changed files of each summarized commit.
+   */
+  public Map<String, Integer> getSummarizedCommits() {
+    synchronized (this.summarized) {
+      return new LinkedHashMap<>(this.summarized);
+    }
+  }
+
   /**
    * Returns a revision tree parser wich could be used to compare revisions and extract revision
    * files.
@@ -41,14 +41,33 @@ public class Configuration {
   private int depth = 3;
   private int cpus = 1;
   private int bugFinder = BugFinderFactory.SIMPLE;
+  private List<Integer> bugFinders = Arrays.asList(BugFinderFactory.SIMPLE);
   private int diffCustomContext = 0;
+  private long diffCacheSize = 2000000;
+  private long blobCacheSize = 256;
+  private double fixTimeBudget = 0;
+  private int fileBlameBudget = 0;
+  private int fileNodeBudget = 0;
+  private double heapLimit = 0;
+  private int residentGraphs = 0;
 
   private String issuePath = null;
   private String repoPath = null;
   private String resPath = "results";
   private String partialFixPattern = "fix";
+  private String jiraIssuePath = null;
+  private String gitlogPattern = null;
+  private String schedule = "simple";
 
   private boolean omitLineText = false;
+  private boolean useProvenanceIndex = false;
+  private boolean walkFileHistory = false;
+  private boolean lazySubGraphs = false;
+  private boolean streamFinder = false;
+  private int hugeCommitFiles = 5000;
+  private String ignoreRevsFile = null;
+  private int whitespaceFiles = 0;
+  private String indexPath = null;
 
   public String helpHeader = "Commandline options for the SZZ algorithm.";
   public String helpFooter = "The results will be produced in ./results";
@@ -85,8 +104,21 @@ public class Configuration {
       System.exit(0);
     }
 
+    if (cmd.hasOption("ji")) {
+      instance.setJiraIssuePath(cmd.getOptionValue("ji"));
+
+      if (cmd.hasOption("gp")) {
+        instance.setGitlogPattern(cmd.getOptionValue("gp"));
+      } else {
+        logger.warn("No gitlog pattern specified! Please use -gp <Pattern>");
+        System.exit(1);
+      }
+    }
+
     if (cmd.hasOption("i")) {
       instance.setIssuePath(cmd.getOptionValue("i"));
+    } else if (instance.getJiraIssuePath() != null) {
+      instance.setIssuePath("issue_list.json");
     } else {
       logger.warn("No Issues specified! Please use -i <IssuePath>");
       System.exit(1);
@@ -113,13 +145,27 @@ public class Configuration {
     }
 
     if (cmd.hasOption("b")) {
-      if (cmd.getOptionValue("b") == "distance") instance.setBugFinder(BugFinderFactory.DISTANCE);
+      Set<Integer> bugFinders = new LinkedHashSet<>();
+      for (String bugFinder : cmd.getOptionValue("b").split(",")) {
+        if (bugFinder.trim().equals("distance")) bugFinders.add(BugFinderFactory.DISTANCE);
+        else bugFinders.add(BugFinderFactory.SIMPLE);
+      }
+      instance.setBugFinders(new ArrayList<>(bugFinders));
+      instance.setBugFinder(instance.getBugFinders().get(0));
     }
 
     if (cmd.hasOption("dc")) {
       instance.setDiffCustomContext(Integer.parseInt(cmd.getOptionValue("dc")));
     }
 
+    if (cmd.hasOption("dcs")) {
+      instance.setDiffCacheSize(Long.parseLong(cmd.getOptionValue("dcs")));
+    }
+
+    if (cmd.hasOption("bcs")) {
+      instance.setBlobCacheSize(Long.parseLong(cmd.getOptionValue("bcs")));
+    }
+
     if (cmd.hasOption("p")) {
       instance.setPartialFixPattern(cmd.getOptionValue("p"));
     }
@@ -128,6 +174,67 @@ public class Configuration {
       instance.setOmitLineText(true);
     }
 
+    if (cmd.hasOption("pi")) {
+      instance.setUseProvenanceIndex(true);
+    }
+
+    if (cmd.hasOption("fh")) {
+      instance.setWalkFileHistory(true);
+    }
+
+    if (cmd.hasOption("ix")) {
+      instance.setIndexPath(cmd.getOptionValue("ix"));
+    }
+
+    if (cmd.hasOption("sc")) {
+      instance.setSchedule(cmd.getOptionValue("sc"));
+    }
+
+    if (cmd.hasOption("tb")) {
+      instance.setFixTimeBudget(Double.parseDouble(cmd.getOptionValue("tb")));
+    }
+
+    if (cmd.hasOption("bb")) {
+      instance.setFileBlameBudget(Integer.parseInt(cmd.getOptionValue("bb")));
+    }
+
+    if (cmd.hasOption("nb")) {
+      instance.setFileNodeBudget(Integer.parseInt(cmd.getOptionValue("nb")));
+    }
+
+    if (cmd.hasOption("hl")) {
+      instance.setHeapLimit(Double.parseDouble(cmd.getOptionValue("hl")));
+    }
+
+    if (cmd.hasOption("rg")) {
+      instance.setResidentGraphs(Integer.parseInt(cmd.getOptionValue("rg")));
+    }
+
+    if (cmd.hasOption("ls")) {
+      instance.setLazySubGraphs(true);
+
+      if (cmd.hasOption("tb") || cmd.hasOption("bb") || cmd.hasOption("nb")) {
+        logger.warn("Lazy subgraphs can't be budgeted! Please leave out -tb, -bb and -nb with -ls");
+        System.exit(1);
+      }
+    }
+
+    if (cmd.hasOption("sf")) {
+      instance.setStreamFinder(true);
+    }
+
+    if (cmd.hasOption("hc")) {
+      instance.setHugeCommitFiles(Integer.parseInt(cmd.getOptionValue("hc")));
+    }
+
+    if (cmd.hasOption("ir")) {
+      instance.setIgnoreRevsFile(cmd.getOptionValue("ir"));
+    }
+
+    if (cmd.hasOption("iw")) {
+      instance.setWhitespaceFiles(Integer.parseInt(cmd.getOptionValue("iw")));
+    }
+
     return instance;
   }
 
@@ -179,6 +286,14 @@ public class Configuration {
     this.bugFinder = bugFinder;
   }
 
+  public List<Integer> getBugFinders() {
+    return bugFinders;
+  }
+
+  protected void setBugFinders(List<Integer> bugFinders) {
+    this.bugFinders = bugFinders;
+  }
+
   public int getDiffCustomContext() {
     return diffCustomContext;
   }
@@ -187,6 +302,22 @@ public class Configuration {
     this.diffCustomContext = diffCustomContext;
   }
 
+  public long getDiffCacheSize() {
+    return diffCacheSize;
+  }
+
+  protected void setDiffCacheSize(long diffCacheSize) {
+    this.diffCacheSize = diffCacheSize;
+  }
+
+  public long getBlobCacheSize() {
+    return blobCacheSize;
+  }
+
+  protected void setBlobCacheSize(long blobCacheSize) {
+    this.blobCacheSize = blobCacheSize;
+  }
+
   public String getResultPath() {
     return resPath;
   }
@@ -203,6 +334,22 @@ public class Configuration {
     this.partialFixPattern = pattern;
   }
 
+  public String getJiraIssuePath() {
+    return jiraIssuePath;
+  }
+
+  protected void setJiraIssuePath(String jiraIssuePath) {
+    this.jiraIssuePath = jiraIssuePath;
+  }
+
+  public String getGitlogPattern() {
+    return gitlogPattern;
+  }
+
+  protected void setGitlogPattern(String gitlogPattern) {
+    this.gitlogPattern = gitlogPattern;
+  }
+
   public boolean getOmitLineText() {
     return this.omitLineText;
   }
@@ -211,6 +358,118 @@ public class Configuration {
     this.omitLineText = omitLineText;
   }
 
+  public boolean getUseProvenanceIndex() {
+    return this.useProvenanceIndex;
+  }
+
+  protected void setUseProvenanceIndex(boolean useProvenanceIndex) {
+    this.useProvenanceIndex = useProvenanceIndex;
+  }
+
+  public boolean getWalkFileHistory() {
+    return this.walkFileHistory;
+  }
+
+  protected void setWalkFileHistory(boolean walkFileHistory) {
+    this.walkFileHistory = walkFileHistory;
+  }
+
+  public String getIndexPath() {
+    return this.indexPath != null ? this.indexPath : this.resPath + "/index";
+  }
+
+  protected void setIndexPath(String indexPath) {
+    this.indexPath = indexPath;
+  }
+
+  public String getSchedule() {
+    return this.schedule;
+  }
+
+  protected void setSchedule(String schedule) {
+    this.schedule = schedule;
+  }
+
+  public double getFixTimeBudget() {
+    return this.fixTimeBudget;
+  }
+
+  protected void setFixTimeBudget(double fixTimeBudget) {
+    this.fixTimeBudget = fixTimeBudget;
+  }
+
+  public int getFileBlameBudget() {
+    return this.fileBlameBudget;
+  }
+
+  protected void setFileBlameBudget(int fileBlameBudget) {
+    this.fileBlameBudget = fileBlameBudget;
+  }
+
+  public int getFileNodeBudget() {
+    return this.fileNodeBudget;
+  }
+
+  protected void setFileNodeBudget(int fileNodeBudget) {
+    this.fileNodeBudget = fileNodeBudget;
+  }
+
+  public double getHeapLimit() {
+    return this.heapLimit;
+  }
+
+  protected void setHeapLimit(double heapLimit) {
+    this.heapLimit = heapLimit;
+  }
+
+  public int getResidentGraphs() {
+    return this.residentGraphs;
+  }
+
+  protected void setResidentGraphs(int residentGraphs) {
+    this.residentGraphs = residentGraphs;
+  }
+
+  public boolean getLazySubGraphs() {
+    return this.lazySubGraphs;
+  }
+
+  protected void setLazySubGraphs(boolean lazySubGraphs) {
+    this.lazySubGraphs = lazySubGraphs;
+  }
+
+  public boolean getStreamFinder() {
+    return this.streamFinder;
+  }
+
+  protected void setStreamFinder(boolean streamFinder) {
+    this.streamFinder = streamFinder;
+  }
+
+  public int getHugeCommitFiles() {
+    return this.hugeCommitFiles;
+  }
+
+  protected void setHugeCommitFiles(int hugeCommitFiles) {
+    this.hugeCommitFiles = hugeCommitFiles;
+  }
+
+  public String getIgnoreRevsFile() {
+    return this.ignoreRevsFile;
+  }
+
+  protected void setIgnoreRevsFile(String ignoreRevsFile) {
+    this.ignoreRevsFile = ignoreRevsFile;
+  }
+
+  public int getWhitespaceFiles() {
+    return this.whitespaceFiles;
+  }
+
+  protected void setWhitespaceFiles(int whitespaceFiles) {
+    this.whitespaceFiles = whitespaceFiles;
+  }
+
   private static Options getCMDOptions() {
     Options options = new Options();
 
@@ -222,6 +481,23 @@ public class Configuration {
     issue_option.setRequired(false);
     options.addOption(issue_option);
 
+    Option jira_issue_option =
+        new Option(
+            "ji",
+            true,
+            "Path to a directory with issues fetched from Jira. The issue file is then built from "
+                + "them and written to the path given by -i, or to issue_list.json.");
+    jira_issue_option.setRequired(false);
+    options.addOption(jira_issue_option);
+
+    Option gitlog_pattern_option =
+        new Option(
+            "gp",
+            true,
+            "The pattern that matches a bugfix when using -ji. Use {nbr} for the issue number.");
+    gitlog_pattern_option.setRequired(false);
+    options.addOption(gitlog_pattern_option);
+
     Option repo_option = new Option("r", true, "Path to a local git repository.");
     repo_option.setRequired(false);
     options.addOption(repo_option);
@@ -235,7 +511,10 @@ public class Configuration {
     options.addOption(cpu_option);
 
     Option bugFinderOption =
-        new Option("b", true, "The choice of bugfinder. Either simple or distance.");
+        new Option(
+            "b",
+            true,
+            "The choice of bugfinder. Either simple, distance or a list like simple,distance.");
     bugFinderOption.setRequired(false);
     options.addOption(bugFinderOption);
 
@@ -244,6 +523,20 @@ public class Configuration {
     diffCustomContextOption.setRequired(false);
     options.addOption(diffCustomContextOption);
 
+    Option diffCacheSizeOption =
+        new Option(
+            "dcs",
+            true,
+            "The maximum number of diff lines that are cached between commits. Defaults to 2000000.");
+    diffCacheSizeOption.setRequired(false);
+    options.addOption(diffCacheSizeOption);
+
+    Option blobCacheSizeOption =
+        new Option(
+            "bcs", true, "The maximum size in megabytes of cached file contents. Defaults to 256.");
+    blobCacheSizeOption.setRequired(false);
+    options.addOption(blobCacheSizeOption);
+
     Option partialFixPatternOption =
         new Option(
             "p",
@@ -257,6 +550,84 @@ public class Configuration {
     omitLineTextOption.setRequired(false);
     options.addOption(omitLineTextOption);
 
+    Option provenanceIndexOption =
+        new Option(
+            "pi", false, "Blame lines with a persistent line provenance index instead of JGit.");
+    provenanceIndexOption.setRequired(false);
+    options.addOption(provenanceIndexOption);
+
+    Option fileHistoryOption =
+        new Option("fh", false, "Trace all depth levels from a single walk of the file history.");
+    fileHistoryOption.setRequired(false);
+    options.addOption(fileHistoryOption);
+
+    Option indexPathOption =
+        new Option("ix", true, "The directory of the indexes. Defaults to the results directory.");
+    indexPathOption.setRequired(false);
+    options.addOption(indexPathOption);
+
+    Option scheduleOption =
+        new Option(
+            "sc", true, "How to schedule the issues over the threads, simple, locality or cost.");
+    scheduleOption.setRequired(false);
+    options.addOption(scheduleOption);
+
+    Option fixTimeBudgetOption =
+        new Option("tb", true, "The number of seconds a fix may be traced before it is truncated.");
+    fixTimeBudgetOption.setRequired(false);
+    options.addOption(fixTimeBudgetOption);
+
+    Option fileBlameBudgetOption =
+        new Option("bb", true, "The number of blames a file may be traced with before truncation.");
+    fileBlameBudgetOption.setRequired(false);
+    options.addOption(fileBlameBudgetOption);
+
+    Option fileNodeBudgetOption =
+        new Option("nb", true, "The number of revisions a file graph may hold before truncation.");
+    fileNodeBudgetOption.setRequired(false);
+    options.addOption(fileNodeBudgetOption);
+
+    Option heapLimitOption =
+        new Option("hl", true, "The share of the heap to stay below by tracing on fewer threads.");
+    heapLimitOption.setRequired(false);
+    options.addOption(heapLimitOption);
+
+    Option residentGraphsOption =
+        new Option("rg", true, "The number of fixes to keep graphs in memory for, the rest spill.");
+    residentGraphsOption.setRequired(false);
+    options.addOption(residentGraphsOption);
+
+    Option lazySubGraphsOption =
+        new Option("ls", false, "Only trace the subgraphs that the bug finder looks at.");
+    lazySubGraphsOption.setRequired(false);
+    options.addOption(lazySubGraphsOption);
+
+    Option streamFinderOption =
+        new Option("sf", false, "Find the bug introducers of each fix as soon as it is traced.");
+    streamFinderOption.setRequired(false);
+    options.addOption(streamFinderOption);
+
+    Option hugeCommitOption =
+        new Option(
+            "hc",
+            true,
+            "The number of changed files above which a commit isn't diffed. Defaults to 5000, 0 diffs all commits.");
+    hugeCommitOption.setRequired(false);
+    options.addOption(hugeCommitOption);
+
+    Option ignoreRevsOption =
+        new Option("ir", true, "A file with revisions to look through, like --ignore-revs-file.");
+    ignoreRevsOption.setRequired(false);
+    options.addOption(ignoreRevsOption);
+
+    Option whitespaceOption =
+        new Option(
+            "iw",
+            true,
+            "Look through commits that only changed whitespace in more files than this.");
+    whitespaceOption.setRequired(false);
+    options.addOption(whitespaceOption);
+
     return options;
   }
 }
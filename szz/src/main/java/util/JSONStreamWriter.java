@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package util;
+
+import java.io.*;
+import org.json.simple.JSONValue;
+
+/**
+ * Writes a JSON object or array one value at a time, so that the whole document never has to be
+ * held in memory.
+ *
+ * @author Oscar Svensson
+ */
+public class JSONStreamWriter implements Closeable {
+
+  private Writer writer;
+  private boolean first = true;
+  private char end;
+
+  /**
+   * Constructor
+   *
+   * @param path the path to the file to write.
+   * @param object if the document is an object, otherwise it is an array.
+   */
+  public JSONStreamWriter(String path, boolean object) throws IOException {
+    this.writer = new BufferedWriter(new FileWriter(path));
+    this.writer.write(object ? '{' : '[');
+    this.end = object ? '}' : ']';
+  }
+
+  /**
+   * Add a value to the array.
+   *
+   * @param value the value to add.
+   */
+  public void add(Object value) throws IOException {
+    if (!first) writer.write(',');
+    first = false;
+
+    JSONValue.writeJSONString(value, writer);
+  }
+
+  /**
+   * Add a key and its value to the object.
+   *
+   * @param key the key.
+   * @param value the value of the key.
+   */
+  public void put(String key, Object value) throws IOException {
+    if (!first) writer.write(',');
+    first = false;
+
+    writer.write("\"" + JSONValue.escape(key) + "\":");
+    JSONValue.writeJSONString(value, writer);
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.write(end);
+    writer.close();
+  }
+}
@@ -28,6 +28,9 @@ import java.io.*;
 import java.util.*;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.ContainerFactory;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import parser.Commit;
 
 /**
@@ -37,6 +40,42 @@ import parser.Commit;
  */
 public class JSONUtil {
 
+  /** A container factory that keeps the order of the keys when a JSON object is parsed. */
+  public static final ContainerFactory ORDERED =
+      new ContainerFactory() {
+        public Map<String, Object> createObjectContainer() {
+          return new LinkedHashMap<>();
+        }
+
+        public JSONArray creatArrayContainer() {
+          return new JSONArray();
+        }
+      };
+
+  /**
+   * Read a JSON object from a file and keep the order of its keys.
+   *
+   * @param path the path to the file.
+   * @return the object.
+   */
+  public static Map<String, Object> readOrderedObject(String path)
+      throws IOException, ParseException {
+    try (FileReader reader = new FileReader(path)) {
+      return asObject(new JSONParser().parse(reader, ORDERED));
+    }
+  }
+
+  /**
+   * Get a parsed JSON value as an object. The parser only creates objects with string keys.
+   *
+   * @param value the parsed value.
+   * @return the value as an object.
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<String, Object> asObject(Object value) {
+    return (Map<String, Object>) value;
+  }
+
   /**
    * Method to save found commits to file.
    *
@@ -68,6 +107,22 @@ public class JSONUtil {
    * @param commits the list of pairs of commits. commits[0]=FIX, commits[1]=INTRODUCER
    */
   public static void saveBugIntroducingCommits(List<String[]> commits, String path) {
+    savePairs(commits, path, "fix_and_introducers_pairs.json");
+  }
+
+  /**
+   * Save the list of bugIntroducing commits of a single bugfinder, when several are run.
+   *
+   * @param commits the list of pairs of commits. commits[0]=FIX, commits[1]=INTRODUCER
+   * @param path the path to which the commits will be saved to.(Not filepath but directory)
+   * @param bugFinder the name of the bugfinder.
+   */
+  public static void saveBugIntroducingCommits(
+      List<String[]> commits, String path, String bugFinder) {
+    savePairs(commits, path, String.format("fix_and_introducers_pairs_%s.json", bugFinder));
+  }
+
+  private static void savePairs(List<String[]> commits, String path, String fileName) {
     JSONArray jCommits = new JSONArray();
 
     for (String[] pair : commits) {
@@ -80,7 +135,86 @@ public class JSONUtil {
     }
 
     if (path != null) {
-      try (FileWriter writer = new FileWriter(path + "/" + "fix_and_introducers_pairs.json")) {
+      try (FileWriter writer = new FileWriter(path + "/" + fileName)) {
+        writer.write(jCommits.toJSONString());
+        writer.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    } else {
+      System.out.println(jCommits);
+    }
+  }
+
+  /**
+   * Save the fix commits whose traces were truncated by their budget.
+   *
+   * @param degraded the truncated files of each fix commit, with the part of the budget that was
+   *     spent.
+   * @param path the path to which the commits will be saved to.(Not filepath but directory)
+   */
+  public static void saveDegradedCommits(Map<String, Map<String, String>> degraded, String path) {
+    JSONObject jCommits = new JSONObject();
+    jCommits.putAll(degraded);
+
+    if (path != null) {
+      try (FileWriter writer = new FileWriter(path + "/" + "degraded.json")) {
+        writer.write(jCommits.toJSONString());
+        writer.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    } else {
+      System.out.println(jCommits);
+    }
+  }
+
+  /**
+   * Save the pairs of each issue, when several issues may reference the same fix commit.
+   *
+   * @param issues the pairs of each issue. pair[0]=FIX, pair[1]=INTRODUCER
+   * @param path the path to which the pairs will be saved to.(Not filepath but directory)
+   */
+  public static void saveIssueIntroducingCommits(Map<String, List<String[]>> issues, String path) {
+    JSONObject jIssues = new JSONObject();
+
+    for (Map.Entry<String, List<String[]>> issue : issues.entrySet()) {
+      JSONArray jCommits = new JSONArray();
+      for (String[] pair : issue.getValue()) {
+        JSONArray jPair = new JSONArray();
+
+        jPair.add(pair[0]);
+        jPair.add(pair[1]);
+
+        jCommits.add(jPair);
+      }
+      jIssues.put(issue.getKey(), jCommits);
+    }
+
+    if (path != null) {
+      try (FileWriter writer = new FileWriter(path + "/" + "issue_and_introducers_pairs.json")) {
+        writer.write(jIssues.toJSONString());
+        writer.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    } else {
+      System.out.println(jIssues);
+    }
+  }
+
+  /**
+   * Save the commits that were only summarized, since they changed too many files to be diffed.
+   *
+   * @param summarized the number of changed files of each summarized commit.
+   * @param path the path to which the commits will be saved to.(Not filepath but directory)
+   */
+  public static void saveSummarizedCommits(Map<String, Integer> summarized, String path) {
+    JSONObject jCommits = new JSONObject();
+    jCommits.putAll(summarized);
+
+    if (path != null) {
+      try (FileWriter writer = new FileWriter(path + "/" + "summarized.json")) {
         writer.write(jCommits.toJSONString());
         writer.flush();
       } catch (IOException e) {
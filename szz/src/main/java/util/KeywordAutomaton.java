@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package util;
+
+import java.util.*;
+
+/**
+ * Finds which of a set of keywords occur in a text, with a single pass over the text. The keywords
+ * are put in a trie with failure links, as described by Aho and Corasick, so the time of a search
+ * doesn't depend on the number of keywords.
+ *
+ * @author Oscar Svensson
+ */
+public class KeywordAutomaton {
+
+  private List<Map<Character, Integer>> transitions = new ArrayList<>();
+  private int[] failures;
+
+  /*
+   * The keywords that end in each state, including those that end in its failure states.
+   */
+  private List<int[]> outputs = new ArrayList<>();
+
+  /**
+   * Constructor
+   *
+   * @param keywords the keywords to search for. A keyword is identified by its index.
+   */
+  public KeywordAutomaton(List<String> keywords) {
+    List<List<Integer>> ends = new ArrayList<>();
+    transitions.add(new HashMap<>());
+    ends.add(new ArrayList<>());
+
+    for (int keyword = 0; keyword < keywords.size(); keyword++) {
+      int state = 0;
+      for (char c : keywords.get(keyword).toCharArray()) {
+        Integer next = transitions.get(state).get(c);
+        if (next == null) {
+          next = transitions.size();
+          transitions.get(state).put(c, next);
+          transitions.add(new HashMap<>());
+          ends.add(new ArrayList<>());
+        }
+        state = next;
+      }
+      ends.get(state).add(keyword);
+    }
+
+    /*
+     * The failure of a state is the longest proper suffix of its path that is also a path in the
+     * trie. The states are visited breadth first, so the failures of shorter paths are known.
+     */
+    failures = new int[transitions.size()];
+    for (int state = 0; state < transitions.size(); state++) outputs.add(null);
+    outputs.set(0, toArray(ends.get(0)));
+
+    Deque<Integer> queue = new ArrayDeque<>(transitions.get(0).values());
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+
+      List<Integer> output = new ArrayList<>(ends.get(state));
+      for (int keyword : outputs.get(failures[state])) output.add(keyword);
+      outputs.set(state, toArray(output));
+
+      for (Map.Entry<Character, Integer> transition : transitions.get(state).entrySet()) {
+        int child = transition.getValue();
+        failures[child] = state == 0 ? 0 : next(failures[state], transition.getKey());
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * Find the keywords that occur in a text.
+   *
+   * @param text the text to search.
+   * @return the indices of the keywords that occur at least once.
+   */
+  public BitSet find(CharSequence text) {
+    BitSet found = new BitSet();
+    int state = 0;
+    for (int i = 0; i < text.length(); i++) {
+      state = next(state, text.charAt(i));
+      for (int keyword : outputs.get(state)) found.set(keyword);
+    }
+    return found;
+  }
+
+  private int next(int state, char c) {
+    while (true) {
+      Integer next = transitions.get(state).get(c);
+      if (next != null) return next;
+      if (state == 0) return 0;
+      state = failures[state];
+    }
+  }
+
+  private static int[] toArray(List<Integer> values) {
+    return values.stream().mapToInt(Integer::intValue).toArray();
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package util;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.*;
+
+/**
+ * Generates the pairs of introducers and issues that the {@link RevisionCombinationGenerator}
+ * generates for two revisions, in the same order, without visiting the combinations that don't
+ * give a pair.
+ *
+ * <p>The introducers and issues are concatenated and each combination of two positions gives at
+ * most one pair, with the revision that is an introducer first. A revision that is both an
+ * introducer and an issue is paired with itself when it is at two positions, and two such
+ * revisions can be paired in both orders. Duplicates give one pair for each combination of their
+ * positions.
+ *
+ * <p>Each pair is on the format {introducer, issue}.
+ *
+ * @author Oscar Svensson
+ */
+public class RevisionPairGenerator implements Iterable<String[]> {
+
+  private String[] revisions;
+  private boolean[] isIntroducer;
+  private boolean[] isIssue;
+
+  /*
+   * The positions of the introducers and of the issues, in increasing order.
+   */
+  private int[] introducers;
+  private int[] issues;
+
+  /**
+   * Constructor
+   *
+   * @param introducers the potential bug introducing revisions.
+   * @param issues the revisions that fixes an issue.
+   */
+  public RevisionPairGenerator(Collection<String> introducers, Collection<String> issues) {
+    Set<String> introducerSet = new HashSet<>(introducers);
+    Set<String> issueSet = new HashSet<>(issues);
+
+    this.revisions = Stream.concat(introducers.stream(), issues.stream()).toArray(String[]::new);
+    this.isIntroducer = new boolean[revisions.length];
+    this.isIssue = new boolean[revisions.length];
+    for (int i = 0; i < revisions.length; i++) {
+      isIntroducer[i] = introducerSet.contains(revisions[i]);
+      isIssue[i] = issueSet.contains(revisions[i]);
+    }
+
+    this.introducers = IntStream.range(0, revisions.length).filter(i -> isIntroducer[i]).toArray();
+    this.issues = IntStream.range(0, revisions.length).filter(i -> isIssue[i]).toArray();
+  }
+
+  /** Returns the number of generated pairs. */
+  public long getTotal() {
+    long total = 0;
+    for (int row = 0; row < revisions.length; row++) {
+      total += getColumnEnd(row) - getColumnStart(row);
+    }
+    return total;
+  }
+
+  public Iterator<String[]> iterator() {
+    return Spliterators.iterator(new PairSpliterator(0, revisions.length));
+  }
+
+  /**
+   * Stream all pairs. A parallel stream splits the work on the positions of the first revision.
+   *
+   * @param parallel if the stream should be parallel or not.
+   * @return a stream of pairs.
+   */
+  public Stream<String[]> stream(boolean parallel) {
+    return StreamSupport.stream(new PairSpliterator(0, revisions.length), parallel);
+  }
+
+  /*
+   * A row is the position of the first revision of a combination. Its columns are the later
+   * positions that give a pair: all of them if the revision is both an introducer and an issue,
+   * otherwise the later positions of the other side.
+   */
+  private int[] getColumns(int row) {
+    if (isIntroducer[row] && isIssue[row]) return null;
+    return isIntroducer[row] ? issues : introducers;
+  }
+
+  private int getColumnStart(int row) {
+    int[] columns = getColumns(row);
+    if (columns == null) return row + 1;
+
+    int index = Arrays.binarySearch(columns, row + 1);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  private int getColumnEnd(int row) {
+    int[] columns = getColumns(row);
+    return columns == null ? revisions.length : columns.length;
+  }
+
+  private String[] getPair(int row, int column) {
+    int[] columns = getColumns(row);
+    int position = columns == null ? column : columns[column];
+
+    if (isIntroducer[row] && isIssue[position]) {
+      return new String[] {revisions[row], revisions[position]};
+    }
+    return new String[] {revisions[position], revisions[row]};
+  }
+
+  /** Walks the combinations row by row, one position of the first revision at a time. */
+  private class PairSpliterator implements Spliterator<String[]> {
+    private int row;
+    private int column;
+    private int end;
+
+    PairSpliterator(int row, int end) {
+      this.row = row;
+      this.end = end;
+      this.column = row < end ? getColumnStart(row) : 0;
+    }
+
+    public boolean tryAdvance(Consumer<? super String[]> action) {
+      while (row < end) {
+        if (column >= getColumnEnd(row)) {
+          if (++row < end) column = getColumnStart(row);
+          continue;
+        }
+
+        action.accept(getPair(row, column++));
+        return true;
+      }
+      return false;
+    }
+
+    public Spliterator<String[]> trySplit() {
+      int mid = (row + end) >>> 1;
+      if (mid <= row) return null;
+
+      PairSpliterator prefix = new PairSpliterator(row, mid);
+      prefix.column = column;
+      row = mid;
+      column = getColumnStart(row);
+      return prefix;
+    }
+
+    public long estimateSize() {
+      return (long) (end - row) * revisions.length;
+    }
+
+    public int characteristics() {
+      return Spliterator.ORDERED | Spliterator.NONNULL;
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package graph;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import org.junit.Test;
+
+/**
+ * Tests the binary form of the graphs and the traversal of their subgraphs.
+ *
+ * @author Oscar Svensson
+ */
+public class FileAnnotationGraphTest {
+
+  @Test
+  public void readsWrittenGraphs() throws Exception {
+    FileAnnotationGraph shared = graph("src/Shared.java", "c3");
+    FileAnnotationGraph first = graph("src/Main.java", "c2", "c1");
+    first.sub_graphs.put("c1", shared);
+    FileAnnotationGraph second = graph("src/Util.java", "c4", "c3");
+    second.truncated = true;
+    FileAnnotationGraph root = graph("src/Main.java", "fix", "c2", "c4");
+    root.sub_graphs.put("c2", first);
+    root.sub_graphs.put("c4", second);
+
+    List<LazySubGraphMap.Tracer> tracers = new ArrayList<>();
+    FileAnnotationGraph read = readFrom(write(root, tracers), tracers);
+
+    assertTrue(tracers.isEmpty());
+    assertGraphEquals(root, read);
+    assertEquals(root.getGraphJSON(), read.getGraphJSON());
+  }
+
+  @Test
+  public void keepsUntracedSubGraphsLazy() throws Exception {
+    int[] traced = new int[1];
+    FileAnnotationGraph sub = graph("src/Util.java", "c1");
+    FileAnnotationGraph root = graph("src/Main.java", "fix", "c1");
+    root.sub_graphs =
+        new LazySubGraphMap(
+            () -> {
+              traced[0]++;
+              return Collections.singletonMap("c1", sub);
+            });
+
+    List<LazySubGraphMap.Tracer> tracers = new ArrayList<>();
+    FileAnnotationGraph read = readFrom(write(root, tracers), tracers);
+
+    assertEquals(1, tracers.size());
+    assertEquals(0, traced[0]);
+    assertTrue(read.sub_graphs instanceof LazySubGraphMap);
+    assertFalse(((LazySubGraphMap) read.sub_graphs).isTraced());
+    assertFalse(read.getGraphJSON().containsKey("truncated"));
+    assertEquals(false, read.getGraphJSON().get("traced"));
+
+    assertSame(sub, read.sub_graphs.get("c1"));
+    assertEquals(1, traced[0]);
+  }
+
+  @Test
+  public void visitsSubGraphsFirstAndSharedGraphsOnce() throws Exception {
+    FileAnnotationGraph shared = graph("D", "d");
+    FileAnnotationGraph b = graph("B", "b", "d");
+    b.sub_graphs.put("d", shared);
+    FileAnnotationGraph c = graph("C", "c", "d");
+    c.sub_graphs.put("d", shared);
+    FileAnnotationGraph a = graph("A", "a", "b", "c");
+    a.sub_graphs.put("b", b);
+    a.sub_graphs.put("c", c);
+
+    assertEquals(Arrays.asList("D", "B", "C", "A"), visit(Arrays.asList(a, b), 3));
+    assertEquals(Arrays.asList("B", "C", "A"), visit(Arrays.asList(a), 2));
+  }
+
+  @Test
+  public void neverTracesBelowTheLastLevel() throws Exception {
+    int[] traced = new int[1];
+    FileAnnotationGraph b = graph("B", "b");
+    b.sub_graphs =
+        new LazySubGraphMap(
+            () -> {
+              traced[0]++;
+              return new HashMap<>();
+            });
+    FileAnnotationGraph a = graph("A", "a", "b");
+    a.sub_graphs.put("b", b);
+
+    assertEquals(Arrays.asList("B", "A"), visit(Arrays.asList(a), 2));
+    assertEquals(0, traced[0]);
+
+    visit(Arrays.asList(a), 3);
+    assertEquals(1, traced[0]);
+  }
+
+  @Test
+  public void stopsWhenTheVisitorDoes() throws Exception {
+    FileAnnotationGraph b = graph("B", "b");
+    FileAnnotationGraph c = graph("C", "c");
+    FileAnnotationGraph a = graph("A", "a", "b", "c");
+    a.sub_graphs.put("b", b);
+    a.sub_graphs.put("c", c);
+
+    List<String> visited = new ArrayList<>();
+    boolean finished =
+        FileAnnotationGraph.traverse(
+            Arrays.asList(a),
+            2,
+            graph -> {
+              visited.add(graph.filePath);
+              return visited.size() < 2;
+            });
+
+    assertFalse(finished);
+    assertEquals(Arrays.asList("B", "C"), visited);
+  }
+
+  /** Create a graph with a mapping of two lines for each revision after the first. */
+  private static FileAnnotationGraph graph(String filePath, String... revisions) {
+    FileAnnotationGraph graph = new FileAnnotationGraph();
+    graph.filePath = filePath;
+    graph.revisions = new LinkedList<>(Arrays.asList(revisions));
+    graph.mappings = new HashMap<>();
+    for (int i = 1; i < revisions.length; i++) {
+      Map<Integer, Integer> lines = new LinkedHashMap<>();
+      lines.put(i, i + 10);
+      lines.put(i + 1, i + 20);
+      graph.mappings.put(revisions[i], lines);
+    }
+    graph.sub_graphs = new LinkedHashMap<>();
+    return graph;
+  }
+
+  private static byte[] write(FileAnnotationGraph graph, List<LazySubGraphMap.Tracer> tracers)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      graph.writeTo(out, tracers);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static FileAnnotationGraph readFrom(byte[] bytes, List<LazySubGraphMap.Tracer> tracers)
+      throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      FileAnnotationGraph graph = FileAnnotationGraph.readFrom(in, tracers);
+      assertEquals(-1, in.read());
+      return graph;
+    }
+  }
+
+  private static List<String> visit(List<FileAnnotationGraph> graphs, int maxLevel)
+      throws Exception {
+    List<String> visited = new ArrayList<>();
+    FileAnnotationGraph.traverse(
+        graphs,
+        maxLevel,
+        graph -> {
+          visited.add(graph.filePath);
+          return true;
+        });
+    return visited;
+  }
+
+  private static void assertGraphEquals(FileAnnotationGraph expected, FileAnnotationGraph actual) {
+    assertEquals(expected.filePath, actual.filePath);
+    assertEquals(expected.truncated, actual.truncated);
+    assertEquals(expected.revisions, actual.revisions);
+    assertEquals(expected.mappings, actual.mappings);
+    for (Map.Entry<String, Map<Integer, Integer>> mapping : expected.mappings.entrySet()) {
+      assertEquals(
+          new ArrayList<>(mapping.getValue().keySet()),
+          new ArrayList<>(actual.mappings.get(mapping.getKey()).keySet()));
+    }
+
+    assertEquals(expected.sub_graphs.keySet(), actual.sub_graphs.keySet());
+    for (Map.Entry<String, FileAnnotationGraph> entry : expected.sub_graphs.entrySet()) {
+      assertGraphEquals(entry.getValue(), actual.sub_graphs.get(entry.getKey()));
+    }
+  }
+}
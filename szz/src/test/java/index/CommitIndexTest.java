@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package index;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.FixtureRepository;
+
+/**
+ * Tests that the commit index holds the commits of the fixture repository, and that it is read
+ * back and updated from its file.
+ *
+ * @author Oscar Svensson
+ */
+public class CommitIndexTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private FixtureRepository fixture;
+
+  @Before
+  public void setUp() throws Exception {
+    fixture = new FixtureRepository(folder.newFolder("repo"));
+  }
+
+  @After
+  public void tearDown() {
+    fixture.close();
+  }
+
+  @Test
+  public void holdsAllCommits() throws Exception {
+    CommitIndex index =
+        CommitIndex.open(fixture.getRepository(), new File(folder.getRoot(), "commits"));
+
+    assertEquals(fixture.commits.size(), index.size());
+    for (RevCommit commit : fixture.commits.values()) assertIndexed(index, commit);
+  }
+
+  @Test
+  public void readsAndUpdatesTheFile() throws Exception {
+    File file = new File(folder.getRoot(), "commits");
+    CommitIndex written = CommitIndex.open(fixture.getRepository(), file);
+    long modified = file.lastModified();
+
+    CommitIndex read = CommitIndex.open(fixture.getRepository(), file);
+    assertEquals(modified, file.lastModified());
+    assertEquals(written.size(), read.size());
+    for (int ordinal = 0; ordinal < written.size(); ordinal++) {
+      assertEquals(written.getId(ordinal), read.getId(ordinal));
+      assertArrayEquals(written.getParents(ordinal), read.getParents(ordinal));
+    }
+
+    fixture.write("e.txt", Arrays.asList("e1"));
+    RevCommit added = fixture.commit("added");
+
+    CommitIndex updated = CommitIndex.open(fixture.getRepository(), file);
+    assertEquals(written.size() + 1, updated.size());
+    for (RevCommit commit : fixture.commits.values()) assertIndexed(updated, commit);
+    assertEquals(updated.size() - 1, updated.ordinal(added));
+  }
+
+  @Test
+  public void resolvesAbbreviatedIds() throws Exception {
+    CommitIndex index =
+        CommitIndex.open(fixture.getRepository(), new File(folder.getRoot(), "commits"));
+
+    for (RevCommit commit : fixture.commits.values()) {
+      assertEquals(index.ordinal(commit), index.resolve(commit.name().substring(0, 12)));
+    }
+    assertEquals(-1, index.resolve("not a commit"));
+  }
+
+  private void assertIndexed(CommitIndex index, RevCommit commit) throws Exception {
+    int ordinal = index.ordinal(commit);
+    assertTrue(commit.name(), ordinal >= 0);
+    assertEquals(commit, index.getId(ordinal));
+
+    try (RevWalk walk = new RevWalk(fixture.getRepository())) {
+      RevCommit parsed = walk.parseCommit(commit);
+      assertEquals(parsed.getTree(), index.getTree(ordinal));
+      assertEquals(parsed.getCommitTime(), index.getCommitTime(ordinal));
+      assertEquals(parsed.getParentCount(), index.getParents(ordinal).length);
+
+      for (int i = 0; i < parsed.getParentCount(); i++) {
+        int parent = index.getParents(ordinal)[i];
+        assertEquals(parsed.getParent(i), index.getId(parent));
+        assertTrue(parent < ordinal);
+      }
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package index;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.FixtureRepository;
+
+/**
+ * Tests that the provenance index blames the files of the fixture repository like JGit does, and
+ * that the stored entries are read back.
+ *
+ * @author Oscar Svensson
+ */
+public class ProvenanceIndexTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private FixtureRepository fixture;
+  private CommitIndex commits;
+
+  @Before
+  public void setUp() throws Exception {
+    fixture = new FixtureRepository(folder.newFolder("repo"));
+    commits = CommitIndex.getInstance(fixture.getRepository());
+    assertNotNull(commits);
+  }
+
+  @After
+  public void tearDown() {
+    fixture.close();
+  }
+
+  @Test
+  public void blamesLikeJGit() throws Exception {
+    ProvenanceIndex provenance =
+        ProvenanceIndex.open(fixture.getRepository(), commits, folder.newFolder("provenance"));
+
+    int lines = 0;
+    for (RevCommit commit : fixture.commits.values()) {
+      for (String path : getPaths(commit)) {
+        int[] origins = provenance.blame(commit, path);
+        if (origins == null) continue;
+
+        BlameResult blame =
+            fixture.getGit().blame().setStartCommit(commit).setFilePath(path).call();
+        int size = blame.getResultContents().size();
+        assertEquals(commit.name() + ":" + path, 2 * size, origins.length);
+
+        for (int line = 0; line < size; line++) {
+          String where = commit.name() + ":" + path + ":" + line;
+          assertEquals(where, blame.getSourceCommit(line), commits.getId(origins[2 * line]));
+          assertEquals(where, blame.getSourceLine(line), origins[2 * line + 1]);
+          lines++;
+        }
+      }
+    }
+    assertTrue(lines > 0);
+  }
+
+  @Test
+  public void resolvesEditsRenamesAndSingleParentMerges() throws Exception {
+    ProvenanceIndex provenance =
+        ProvenanceIndex.open(fixture.getRepository(), commits, folder.newFolder("provenance"));
+
+    assertNotNull(provenance.blame(fixture.commits.get("edit"), "a.txt"));
+    assertNotNull(provenance.blame(fixture.commits.get("merge"), "b.txt"));
+    assertNotNull(provenance.blame(fixture.commits.get("rename"), "c.txt"));
+    assertEquals(0, provenance.blame(fixture.commits.get("edit"), "missing.txt").length);
+  }
+
+  @Test
+  public void leavesMergesOfSeveralParentsToJGit() throws Exception {
+    ProvenanceIndex provenance =
+        ProvenanceIndex.open(fixture.getRepository(), commits, folder.newFolder("provenance"));
+
+    assertNull(provenance.blame(fixture.commits.get("merge"), "a.txt"));
+    assertNull(provenance.blame(fixture.commits.get("remove"), "a.txt"));
+  }
+
+  @Test
+  public void readsStoredEntries() throws Exception {
+    File directory = folder.newFolder("provenance");
+    ProvenanceIndex written = ProvenanceIndex.open(fixture.getRepository(), commits, directory);
+
+    Map<String, int[]> blamed = new LinkedHashMap<>();
+    for (RevCommit commit : fixture.commits.values()) {
+      for (String path : getPaths(commit)) {
+        blamed.put(commit.name() + ":" + path, written.blame(commit, path));
+      }
+    }
+
+    ProvenanceIndex read = ProvenanceIndex.open(fixture.getRepository(), commits, directory);
+    for (RevCommit commit : fixture.commits.values()) {
+      for (String path : getPaths(commit)) {
+        String key = commit.name() + ":" + path;
+        assertArrayEquals(key, blamed.get(key), read.blame(commit, path));
+      }
+    }
+    assertEquals(0, read.getMisses());
+  }
+
+  private List<String> getPaths(RevCommit commit) throws Exception {
+    List<String> paths = new ArrayList<>();
+    try (TreeWalk walk = new TreeWalk(fixture.getRepository())) {
+      walk.addTree(commit.getTree());
+      walk.setRecursive(true);
+      while (walk.next()) paths.add(walk.getPathString());
+    }
+    return paths;
+  }
+}
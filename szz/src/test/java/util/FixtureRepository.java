@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Axis Communications AB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small repository for the tests, with edits, a branch that is merged back, a rename and a
+ * deleted line. The commits are made a minute apart, so their order doesn't depend on how fast
+ * they are made.
+ *
+ * @author Oscar Svensson
+ */
+public class FixtureRepository implements Closeable {
+
+  private static File root = null;
+
+  private Git git;
+  private int time = 0;
+
+  /** The commits of the history, in the order they were made. */
+  public Map<String, RevCommit> commits = new LinkedHashMap<>();
+
+  /**
+   * Initialize the configuration of the tests, with the indexes in a temporary directory. The
+   * configuration can only be initialized once, so it's shared by all tests.
+   */
+  public static synchronized void configure() throws IOException {
+    if (root != null) return;
+
+    root = Files.createTempDirectory("szz-test").toFile();
+    Configuration.init(
+        LoggerFactory.getLogger(FixtureRepository.class),
+        "-i",
+        new File(root, "issue_list.json").getPath(),
+        "-r",
+        root.getPath(),
+        "-ix",
+        new File(root, "index").getPath());
+  }
+
+  /**
+   * Create the repository.
+   *
+   * @param directory the directory of the work tree.
+   */
+  public FixtureRepository(File directory) throws IOException, GitAPIException {
+    configure();
+    this.git = Git.init().setDirectory(directory).call();
+
+    write("a.txt", lines("a", 1, 12));
+    write("b.txt", lines("b", 1, 6));
+    commit("add");
+
+    List<String> a = lines("a", 1, 12);
+    a.set(2, "a3 changed");
+    a.set(3, "a4 changed");
+    a.add(6, "a6.5");
+    write("a.txt", a);
+    commit("edit");
+
+    git.checkout().setCreateBranch(true).setName("side").call();
+    List<String> side = new ArrayList<>(a);
+    side.set(10, "a10 side");
+    write("a.txt", side);
+    List<String> b = lines("b", 1, 7);
+    write("b.txt", b);
+    commit("side");
+
+    git.checkout().setName("master").call();
+    List<String> master = new ArrayList<>(a);
+    master.set(0, "a1 master");
+    write("a.txt", master);
+    commit("master");
+
+    MergeResult merge = git.merge().include(this.commits.get("side")).setCommit(false).call();
+    if (!merge.getMergeStatus().isSuccessful()) {
+      throw new IllegalStateException("The fixture merge failed: " + merge.getMergeStatus());
+    }
+    commit("merge");
+
+    List<String> merged = new ArrayList<>(master);
+    merged.set(10, "a10 side");
+    merged.set(4, "a5 again");
+    write("a.txt", merged);
+    b.add("b8");
+    new File(directory, "b.txt").delete();
+    write("c.txt", b);
+    git.rm().addFilepattern("b.txt").call();
+    commit("rename");
+
+    merged.remove(1);
+    write("a.txt", merged);
+    write("d.txt", lines("d", 1, 3));
+    commit("remove");
+  }
+
+  public Repository getRepository() {
+    return this.git.getRepository();
+  }
+
+  public Git getGit() {
+    return this.git;
+  }
+
+  /** Make a commit of the work tree, a minute after the last one. */
+  public RevCommit commit(String name) throws GitAPIException {
+    PersonIdent ident =
+        new PersonIdent(
+            "Fixture",
+            "fixture@example.com",
+            new Date(1500000000000L + 60000L * time++),
+            TimeZone.getTimeZone("UTC"));
+
+    git.add().addFilepattern(".").call();
+    RevCommit commit = git.commit().setMessage(name).setAuthor(ident).setCommitter(ident).call();
+    this.commits.put(name, commit);
+    return commit;
+  }
+
+  /** Write a file of the work tree. */
+  public void write(String path, List<String> lines) throws IOException {
+    File file = new File(git.getRepository().getWorkTree(), path);
+    Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+  }
+
+  private static List<String> lines(String prefix, int first, int last) {
+    List<String> lines = new ArrayList<>();
+    for (int i = first; i <= last; i++) lines.add(prefix + i);
+    return lines;
+  }
+
+  @Override
+  public void close() {
+    this.git.getRepository().close();
+    this.git.close();
+  }
+}